@@ -0,0 +1,91 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface.benchmark
+
+import java.io.File
+import java.util.*
+import kotlin.math.sqrt
+
+private const val BATCH_SIZE = 1_000
+
+class BenchmarkResult(val name: String,
+                      val params: Map<String, String>,
+                      val nanosPerOp: Double,
+                      val nanosPerOpStdDev: Double,
+                      val iterations: Int) {
+
+    fun toJson(): String {
+        val paramsJson = params.entries.joinToString(", ", "{", "}") { (key, value) -> "\"$key\": \"$value\"" }
+        return String.format(Locale.US,
+            "{\"benchmark\": \"%s\", \"params\": %s, \"unit\": \"ns/op\", \"score\": %.3f, \"scoreStdDev\": %.3f, \"iterations\": %d}",
+            name, paramsJson, nanosPerOp, nanosPerOpStdDev, iterations)
+    }
+
+    override fun toString(): String {
+        return String.format(Locale.US, "%-24s %-48s %12.3f +- %.3f ns/op", name, params, nanosPerOp, nanosPerOpStdDev)
+    }
+}
+
+/**
+ * Times an operation the way JMH does in average time mode: warm-up iterations first, then
+ * measured iterations of a fixed duration, each one calling the operation in batches until the
+ * duration is reached.
+ *
+ * Operations get the index of the call and return a value derived from their result, which is
+ * accumulated so that the JIT can't drop the work.
+ */
+class BenchmarkRunner(private val warmUpIterations: Int = 5,
+                      private val measurementIterations: Int = 10,
+                      private val iterationNanos: Long = 200_000_000L) {
+    private var sink = 0L
+
+    fun run(name: String, params: Map<String, String>, operation: (Int) -> Long): BenchmarkResult {
+        for(i in 0 until warmUpIterations) {
+            runIteration(operation)
+        }
+
+        val scores = DoubleArray(measurementIterations) { runIteration(operation) }
+        val mean = scores.average()
+        val variance = scores.map { (it - mean) * (it - mean) }.sum() / Math.max(1, scores.size - 1)
+
+        return BenchmarkResult(name, params, mean, sqrt(variance), measurementIterations)
+    }
+
+    /**
+     * @return the average time of a call, in nanoseconds
+     */
+    private fun runIteration(operation: (Int) -> Long): Double {
+        var calls = 0
+        var accumulator = 0L
+        val start = System.nanoTime()
+        var elapsed: Long
+        do {
+            for(i in 0 until BATCH_SIZE) {
+                accumulator += operation(calls + i)
+            }
+            calls += BATCH_SIZE
+            elapsed = System.nanoTime() - start
+        } while( elapsed < iterationNanos )
+
+        sink += accumulator
+        return elapsed.toDouble() / calls
+    }
+}
+
+fun writeJson(results: List<BenchmarkResult>, file: File) {
+    file.absoluteFile.parentFile?.mkdirs()
+    file.writeText(results.joinToString(",\n", "[\n", "\n]\n") { "  ${it.toJson()}" })
+}
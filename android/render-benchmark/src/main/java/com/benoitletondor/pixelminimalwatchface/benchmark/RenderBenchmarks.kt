@@ -0,0 +1,109 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface.benchmark
+
+import com.benoitletondor.pixelminimalwatchface.drawer.TimeTextEngine
+import com.benoitletondor.pixelminimalwatchface.layout.ScreenSpec
+import com.benoitletondor.pixelminimalwatchface.layout.TextMetrics
+import com.benoitletondor.pixelminimalwatchface.layout.computeLayoutPlan
+import com.benoitletondor.pixelminimalwatchface.layout.timeSizeToScaleFactor
+import java.io.File
+import java.util.*
+
+// Reference sizes of the resources the watch face measures its texts and logo with, see LayoutEngineTest
+private const val TIME_TEXT_SIZE_DP = 59f
+private const val TIME_TEXT_SIZE_ROUND_DP = 62f
+private const val DATE_TEXT_SIZE_DP = 14f
+private const val WEAR_OS_LOGO_WIDTH_DP = 28f
+private const val WEAR_OS_LOGO_HEIGHT_DP = 20f
+private const val TIME_HEIGHT_RATIO = 0.72f
+private const val DATE_HEIGHT_RATIO = 0.95f
+
+private val SCREENS = listOf(
+    ScreenSpec(360, 360, true, 0, 263f),
+    ScreenSpec(390, 390, true, 0, 326f),
+    ScreenSpec(454, 454, true, 0, 330f),
+    ScreenSpec(360, 360, false, 0, 290f),
+    ScreenSpec(390, 390, false, 0, 314f),
+    ScreenSpec(454, 454, false, 0, 330f)
+)
+private val TIME_SIZES = listOf(0, 25, 50, 75, 100)
+
+// Start of a minute
+private const val BASE_TIME_MS = 1_589_500_800_000L
+// Frames of an interactive minute at 60fps
+private const val FRAMES_PER_MINUTE = 3_750
+
+/**
+ * Runs every benchmark and writes the results to the JSON file given as first argument.
+ */
+fun main(args: Array<String>) {
+    val runner = BenchmarkRunner()
+    val results = ArrayList<BenchmarkResult>()
+
+    for(screen in SCREENS) {
+        for(timeSize in TIME_SIZES) {
+            results.add(benchmarkLayoutPlan(runner, screen, timeSize))
+        }
+    }
+
+    for(use24hFormat in listOf(true, false)) {
+        results.add(benchmarkTimeText(runner, "timeTextFrame", use24hFormat, frameIntervalMs = 16L))
+        results.add(benchmarkTimeText(runner, "timeTextMinuteChange", use24hFormat, frameIntervalMs = 60_000L))
+    }
+
+    for(result in results) {
+        println(result)
+    }
+
+    if( args.isNotEmpty() ) {
+        writeJson(results, File(args[0]))
+        println("Results written to ${args[0]}")
+    }
+}
+
+private fun benchmarkLayoutPlan(runner: BenchmarkRunner, screen: ScreenSpec, timeSize: Int): BenchmarkResult {
+    val pxPerDp = screen.xdpi / 160f
+    val scaleFactor = timeSizeToScaleFactor(timeSize)
+    val timeTextSize = (if( screen.isRound ) { TIME_TEXT_SIZE_ROUND_DP } else { TIME_TEXT_SIZE_DP }) * pxPerDp * scaleFactor
+    val textMetrics = TextMetrics(
+        timeHeight = (timeTextSize * TIME_HEIGHT_RATIO).toInt(),
+        dateHeight = (DATE_TEXT_SIZE_DP * pxPerDp * scaleFactor * DATE_HEIGHT_RATIO).toInt()
+    )
+    val logoWidth = (WEAR_OS_LOGO_WIDTH_DP * pxPerDp).toInt()
+    val logoHeight = (WEAR_OS_LOGO_HEIGHT_DP * pxPerDp).toInt()
+
+    val params = mapOf(
+        "screen" to "${screen.width}x${screen.height}",
+        "shape" to if( screen.isRound ) { "round" } else { "square" },
+        "timeSize" to timeSize.toString()
+    )
+
+    return runner.run("layoutPlan", params) {
+        computeLayoutPlan(screen, textMetrics, logoWidth, logoHeight).bottomComplication.bottom.toLong()
+    }
+}
+
+private fun benchmarkTimeText(runner: BenchmarkRunner, name: String, use24hFormat: Boolean, frameIntervalMs: Long): BenchmarkResult {
+    val engine = TimeTextEngine()
+    val timeZone = TimeZone.getTimeZone("Europe/Paris")
+    val params = mapOf("format" to if( use24hFormat ) { "24h" } else { "12h" })
+
+    return runner.run(name, params) { i ->
+        engine.update(BASE_TIME_MS + (i % FRAMES_PER_MINUTE) * frameIntervalMs, timeZone, use24hFormat)
+        engine.chars[engine.length - 1].toLong()
+    }
+}
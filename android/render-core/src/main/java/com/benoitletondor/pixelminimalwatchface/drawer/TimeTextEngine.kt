@@ -0,0 +1,104 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface.drawer
+
+import java.text.DecimalFormatSymbols
+import java.util.*
+
+private const val MINUTE_MS = 60_000L
+private const val MINUTES_IN_DAY = 24 * 60
+
+/**
+ * Produces the "HH:mm" / "h:mm" time text into a reusable char buffer.
+ *
+ * The text is only reformatted when the local minute (epoch minute + time zone offset), the
+ * 24h setting or the default locale change, so drawing between two minute boundaries
+ * doesn't allocate anything.
+ */
+class TimeTextEngine {
+    val chars = CharArray(5)
+    var length = 0
+        private set
+
+    /**
+     * Width of the current text, as measured by the drawer. Reset to -1 every time the text
+     * changes or when [invalidateWidth] is called.
+     */
+    var width = -1f
+
+    private var epochMinute = Long.MIN_VALUE
+    private var timeZoneOffset = Int.MIN_VALUE
+    private var use24hFormat = false
+    private var locale: Locale? = null
+    private var zeroDigit = '0'
+
+    /**
+     * @return true if the text changed
+     */
+    fun update(timeMillis: Long, timeZone: TimeZone, use24hFormat: Boolean): Boolean {
+        val offset = timeZone.getOffset(timeMillis)
+        val minute = Math.floorDiv(timeMillis, MINUTE_MS)
+        val currentLocale = Locale.getDefault()
+
+        if( minute == epochMinute &&
+            offset == timeZoneOffset &&
+            use24hFormat == this.use24hFormat &&
+            currentLocale === locale ) {
+            return false
+        }
+
+        if( currentLocale !== locale ) {
+            locale = currentLocale
+            zeroDigit = DecimalFormatSymbols.getInstance(currentLocale).zeroDigit
+        }
+
+        epochMinute = minute
+        timeZoneOffset = offset
+        this.use24hFormat = use24hFormat
+
+        val minuteOfDay = Math.floorMod(Math.floorDiv(timeMillis + offset, MINUTE_MS), MINUTES_IN_DAY.toLong()).toInt()
+        val minutes = minuteOfDay % 60
+        var hours = minuteOfDay / 60
+        if( !use24hFormat ) {
+            hours %= 12
+            if( hours == 0 ) {
+                hours = 12
+            }
+        }
+
+        var index = 0
+        if( use24hFormat || hours >= 10 ) {
+            chars[index++] = zeroDigit + hours / 10
+        }
+        chars[index++] = zeroDigit + hours % 10
+        chars[index++] = ':'
+        chars[index++] = zeroDigit + minutes / 10
+        chars[index++] = zeroDigit + minutes % 10
+
+        length = index
+        width = -1f
+
+        return true
+    }
+
+    fun invalidate() {
+        epochMinute = Long.MIN_VALUE
+    }
+
+    fun invalidateWidth() {
+        width = -1f
+    }
+}
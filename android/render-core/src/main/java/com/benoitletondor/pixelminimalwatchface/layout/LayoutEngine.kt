@@ -0,0 +1,110 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface.layout
+
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.pow
+import kotlin.math.sqrt
+
+fun timeSizeToScaleFactor(timeSize: Int): Float {
+    return when(timeSize) {
+        0 -> 0.80f
+        25 -> 0.90f
+        50 -> 1f
+        75 -> 1.10f
+        100 -> 1.20f
+        else -> 1f
+    }
+}
+
+fun computeLayoutPlan(screen: ScreenSpec,
+                      textMetrics: TextMetrics,
+                      wearOSLogoWidth: Int,
+                      wearOSLogoHeight: Int): LayoutPlan {
+    val dimens = screen.dimens
+    val centerX = screen.centerX
+
+    val timeYOffset = screen.centerY + (textMetrics.timeHeight / 2.0f ) - 5f
+    val dateYOffset = timeYOffset + (textMetrics.timeHeight / 2) - (textMetrics.dateHeight / 2.0f ) + dimens.dateTopMargin
+
+    val topBottom = timeYOffset - textMetrics.timeHeight - dimens.complicationsBottomMargin
+    val bottomTop = dateYOffset + textMetrics.dateHeight / 2
+
+    val sizeOfComplication = (screen.width / 4.5).toInt()
+    val verticalOffset = topBottom.toInt() - sizeOfComplication
+    val distanceBetweenComplications = dimens.complicationSpacing
+
+    val maxWidth = max(sizeOfComplication, wearOSLogoWidth)
+
+    val leftComplication = LayoutBounds(
+        (centerX - (maxWidth / 2) - distanceBetweenComplications - sizeOfComplication).toInt(),
+        verticalOffset,
+        (centerX - (maxWidth / 2)  - distanceBetweenComplications).toInt(),
+        (verticalOffset + sizeOfComplication)
+    )
+
+    val middleComplication = LayoutBounds(
+        (centerX - (sizeOfComplication / 2)).toInt(),
+        verticalOffset,
+        (centerX + (sizeOfComplication / 2)).toInt(),
+        (verticalOffset + sizeOfComplication)
+    )
+
+    val rightComplication = LayoutBounds(
+        (centerX + (maxWidth / 2) + distanceBetweenComplications).toInt(),
+        verticalOffset,
+        (centerX + (maxWidth / 2)  + distanceBetweenComplications + sizeOfComplication).toInt(),
+        (verticalOffset + sizeOfComplication)
+    )
+
+    val availableBottomSpace = screen.height - bottomTop - screen.chinSize - dimens.bottomComplicationBottomMargin
+    val bottomComplicationHeight = min(availableBottomSpace, dimens.bottomComplicationMaxHeight.toFloat())
+    val bottomComplicationBottom = (bottomTop + bottomComplicationHeight).toInt()
+    val bottomComplicationLeft = computeComplicationLeft(screen, bottomComplicationBottom)
+    val bottomComplicationWidth = (screen.width - 2* bottomComplicationLeft) * 0.9
+    val bottomComplication = LayoutBounds(
+        (centerX - (bottomComplicationWidth / 2)).toInt(),
+        bottomTop.toInt() + dimens.bottomComplicationTopMargin,
+        (centerX + (bottomComplicationWidth / 2)).toInt(),
+        bottomComplicationBottom
+    )
+
+    return LayoutPlan(
+        screen,
+        timeYOffset,
+        dateYOffset,
+        textMetrics.dateHeight,
+        leftComplication,
+        middleComplication,
+        rightComplication,
+        bottomComplication,
+        centerX - (wearOSLogoWidth / 2.0f),
+        (verticalOffset + (sizeOfComplication / 2) - (wearOSLogoHeight / 2)).toFloat()
+    )
+}
+
+/**
+ * @return the left of a full width element whose bottom is at [bottomY], so that its corners
+ * stay inside the screen
+ */
+fun computeComplicationLeft(screen: ScreenSpec, bottomY: Int): Int {
+    return if( screen.isRound ) {
+        screen.height / 2 - sqrt((screen.height / 2).toDouble().pow(2) - ((bottomY - (screen.height / 2)).toDouble().pow(2))).toInt()
+    } else {
+        screen.dimens.squareScreenHorizontalMargin
+    }
+}
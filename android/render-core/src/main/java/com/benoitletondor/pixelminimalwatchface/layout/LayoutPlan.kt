@@ -0,0 +1,42 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface.layout
+
+/**
+ * Heights of the reference time and date texts, measured with the current paints.
+ */
+data class TextMetrics(val timeHeight: Int,
+                       val dateHeight: Int)
+
+data class LayoutBounds(val left: Int,
+                        val top: Int,
+                        val right: Int,
+                        val bottom: Int)
+
+/**
+ * Result of [computeLayoutPlan]: where everything goes on the screen. Immutable, a new plan is
+ * computed when the screen, the text sizes or the logo change.
+ */
+data class LayoutPlan(val screen: ScreenSpec,
+                      val timeYOffset: Float,
+                      val dateYOffset: Float,
+                      val dateTextHeight: Int,
+                      val leftComplication: LayoutBounds,
+                      val middleComplication: LayoutBounds,
+                      val rightComplication: LayoutBounds,
+                      val bottomComplication: LayoutBounds,
+                      val wearOSLogoX: Float,
+                      val wearOSLogoY: Float)
@@ -0,0 +1,53 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface.layout
+
+import kotlin.math.roundToInt
+
+// Same as android.util.DisplayMetrics.DENSITY_DEFAULT, this module doesn't depend on Android
+private const val DENSITY_DEFAULT = 160
+
+/**
+ * Everything the layout depends on about the screen.
+ */
+data class ScreenSpec(val width: Int,
+                      val height: Int,
+                      val isRound: Boolean,
+                      val chinSize: Int,
+                      val xdpi: Float) {
+    val centerX = width / 2f
+    val centerY = height / 2f
+    val dimens = LayoutDimens(xdpi)
+}
+
+/**
+ * Spacings of the layout converted to pixels once for the screen density.
+ */
+class LayoutDimens(xdpi: Float) {
+    private val pxPerDp = xdpi / DENSITY_DEFAULT
+
+    val complicationsBottomMargin = dpToPx(2)
+    val complicationSpacing = dpToPx(3)
+    val bottomComplicationTopMargin = dpToPx(5)
+    val spaceBeforeWeather = dpToPx(5)
+    val dateTopMargin = dpToPx(8)
+    val debugOverlayTextSize = dpToPx(8)
+    val squareScreenHorizontalMargin = dpToPx(10)
+    val bottomComplicationBottomMargin = dpToPx(15)
+    val bottomComplicationMaxHeight = dpToPx(36)
+
+    fun dpToPx(dp: Int): Int = (dp * pxPerDp).roundToInt()
+}
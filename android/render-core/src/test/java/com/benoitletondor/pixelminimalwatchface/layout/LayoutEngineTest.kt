@@ -0,0 +1,156 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface.layout
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.math.hypot
+import kotlin.math.roundToInt
+
+// Reference sizes of the resources the watch face measures its texts and logo with
+private const val TIME_TEXT_SIZE_DP = 59f
+private const val TIME_TEXT_SIZE_ROUND_DP = 62f
+private const val DATE_TEXT_SIZE_DP = 14f
+private const val WEAR_OS_LOGO_WIDTH_DP = 28f
+private const val WEAR_OS_LOGO_HEIGHT_DP = 20f
+// Height of the digits and of the date text relative to their text size with the fonts in use
+private const val TIME_HEIGHT_RATIO = 0.72f
+private const val DATE_HEIGHT_RATIO = 0.95f
+
+private val SCREENS = listOf(
+    ScreenSpec(320, 320, true, 0, 245f),
+    ScreenSpec(320, 320, true, 30, 205f),
+    ScreenSpec(360, 360, true, 0, 263f),
+    ScreenSpec(360, 360, true, 30, 233f),
+    ScreenSpec(390, 390, true, 0, 326f),
+    ScreenSpec(400, 400, true, 0, 287f),
+    ScreenSpec(416, 416, true, 0, 328f),
+    ScreenSpec(454, 454, true, 0, 330f),
+    ScreenSpec(280, 280, false, 0, 240f),
+    ScreenSpec(320, 320, false, 0, 278f),
+    ScreenSpec(360, 360, false, 0, 290f)
+)
+
+class LayoutEngineTest {
+
+    @Test
+    fun complicationsStayInsideRoundScreens() {
+        forEachLayout(isRound = true) { plan ->
+            val radius = plan.screen.width / 2.0
+
+            // Top complications are drawn fully rounded: what must fit is the circle inscribed in their bounds
+            for(bounds in listOf(plan.leftComplication, plan.middleComplication, plan.rightComplication)) {
+                val distance = plan.distanceToCenter((bounds.left + bounds.right) / 2.0, (bounds.top + bounds.bottom) / 2.0)
+                val complicationRadius = Math.min(bounds.right - bounds.left, bounds.bottom - bounds.top) / 2.0
+                assertTrue("$bounds is outside of the screen for $plan", distance + complicationRadius <= radius)
+            }
+
+            for((x, y) in plan.bottomComplication.corners()) {
+                assertTrue("${plan.bottomComplication} is outside of the screen for $plan", plan.distanceToCenter(x, y) <= radius)
+            }
+        }
+    }
+
+    @Test
+    fun complicationsStayInsideSquareScreens() {
+        forEachLayout(isRound = false) { plan ->
+            for(bounds in plan.complications()) {
+                assertTrue("$bounds is outside of the screen for $plan",
+                    bounds.left >= 0 && bounds.top >= 0 && bounds.right <= plan.screen.width && bounds.bottom <= plan.screen.height)
+            }
+        }
+    }
+
+    @Test
+    fun topComplicationsDontOverlap() {
+        forEachLayout(isRound = true) { plan -> assertTopComplicationsDontOverlap(plan) }
+        forEachLayout(isRound = false) { plan -> assertTopComplicationsDontOverlap(plan) }
+    }
+
+    @Test
+    fun complicationsAreNotEmpty() {
+        forEachLayout(isRound = true) { plan -> assertComplicationsAreNotEmpty(plan) }
+        forEachLayout(isRound = false) { plan -> assertComplicationsAreNotEmpty(plan) }
+    }
+
+    @Test
+    fun topComplicationsAreCentered() {
+        forEachLayout(isRound = true) { plan ->
+            val leftMargin = plan.leftComplication.left
+            val rightMargin = plan.screen.width - plan.rightComplication.right
+            assertTrue("Top complications are not centered for $plan", Math.abs(leftMargin - rightMargin) <= 1)
+        }
+    }
+
+    @Test
+    fun timeSizeScaleFactorDefaultsToOne() {
+        assertEquals(1f, timeSizeToScaleFactor(50))
+        assertEquals(1f, timeSizeToScaleFactor(42))
+        assertTrue(timeSizeToScaleFactor(0) < timeSizeToScaleFactor(100))
+    }
+
+    private fun assertTopComplicationsDontOverlap(plan: LayoutPlan) {
+        assertTrue("Left and middle complications overlap for $plan", plan.leftComplication.right <= plan.middleComplication.left)
+        assertTrue("Middle and right complications overlap for $plan", plan.middleComplication.right <= plan.rightComplication.left)
+        assertTrue("Top complications overlap the bottom one for $plan", plan.middleComplication.bottom <= plan.bottomComplication.top)
+    }
+
+    private fun assertComplicationsAreNotEmpty(plan: LayoutPlan) {
+        for(bounds in plan.complications()) {
+            assertTrue("$bounds is empty for $plan", bounds.right > bounds.left && bounds.bottom > bounds.top)
+        }
+    }
+
+    /**
+     * Computes the layout of every supported time size on the screens of existing watches
+     */
+    private fun forEachLayout(isRound: Boolean, block: (LayoutPlan) -> Unit) {
+        for(screen in SCREENS) {
+            if( screen.isRound != isRound ) {
+                continue
+            }
+
+            for(timeSize in intArrayOf(0, 25, 50, 75, 100)) {
+                block(computeLayoutPlan(screen, timeSize))
+            }
+        }
+    }
+
+    private fun computeLayoutPlan(screen: ScreenSpec, timeSize: Int): LayoutPlan {
+        val pxPerDp = screen.xdpi / 160f
+        val timeTextSize = (if( screen.isRound ) { TIME_TEXT_SIZE_ROUND_DP } else { TIME_TEXT_SIZE_DP }) * pxPerDp * timeSizeToScaleFactor(timeSize)
+        val dateTextSize = DATE_TEXT_SIZE_DP * pxPerDp * timeSizeToScaleFactor(timeSize)
+
+        return computeLayoutPlan(
+            screen,
+            TextMetrics((timeTextSize * TIME_HEIGHT_RATIO).roundToInt(), (dateTextSize * DATE_HEIGHT_RATIO).roundToInt()),
+            (WEAR_OS_LOGO_WIDTH_DP * pxPerDp).roundToInt(),
+            (WEAR_OS_LOGO_HEIGHT_DP * pxPerDp).roundToInt()
+        )
+    }
+
+    private fun LayoutPlan.distanceToCenter(x: Double, y: Double) = hypot(x - screen.centerX, y - screen.centerY)
+
+    private fun LayoutPlan.complications() = listOf(leftComplication, middleComplication, rightComplication, bottomComplication)
+
+    private fun LayoutBounds.corners() = listOf(
+        Pair(left.toDouble(), top.toDouble()),
+        Pair(right.toDouble(), top.toDouble()),
+        Pair(left.toDouble(), bottom.toDouble()),
+        Pair(right.toDouble(), bottom.toDouble())
+    )
+}
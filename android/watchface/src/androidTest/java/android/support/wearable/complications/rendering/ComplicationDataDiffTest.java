@@ -0,0 +1,96 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package android.support.wearable.complications.rendering;
+
+import android.content.Context;
+import android.support.wearable.complications.ComplicationData;
+import android.support.wearable.complications.ComplicationText;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class ComplicationDataDiffTest {
+    private static final long NOW = 1_589_500_800_000L;
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    @Test
+    public void sameContentIsNone() {
+        assertEquals(ComplicationDataDiff.NONE, diff(shortText("72").build(), shortText("72").build()));
+    }
+
+    @Test
+    public void textChangeIsTextOnly() {
+        assertEquals(ComplicationDataDiff.TEXT_ONLY, diff(shortText("72").build(), shortText("73").build()));
+    }
+
+    @Test
+    public void endTimeChangeIsTextOnly() {
+        ComplicationData oldData = shortText("72").setEndTime(NOW + HOUR).build();
+        ComplicationData newData = shortText("72").setEndTime(NOW + 2 * HOUR).build();
+
+        assertEquals(ComplicationDataDiff.TEXT_ONLY, diff(oldData, newData));
+    }
+
+    @Test
+    public void startTimeChangeIsTextOnly() {
+        ComplicationData oldData = shortText("72").setStartTime(NOW - HOUR).build();
+        ComplicationData newData = shortText("72").setStartTime(NOW - 2 * HOUR).build();
+
+        assertEquals(ComplicationDataDiff.TEXT_ONLY, diff(oldData, newData));
+    }
+
+    @Test
+    public void activeStateChangeIsFull() {
+        ComplicationData oldData = shortText("72").build();
+        ComplicationData newData = shortText("72").setEndTime(NOW - HOUR).build();
+
+        assertEquals(ComplicationDataDiff.FULL, diff(oldData, newData));
+    }
+
+    @Test
+    public void textPresenceChangeIsFull() {
+        ComplicationData oldData = shortText("72").build();
+        ComplicationData newData = shortText("72").setShortTitle(ComplicationText.plainText("BPM")).build();
+
+        assertEquals(ComplicationDataDiff.FULL, diff(oldData, newData));
+    }
+
+    @Test
+    public void typeChangeIsFull() {
+        ComplicationData newData = new ComplicationData.Builder(ComplicationData.TYPE_LONG_TEXT)
+            .setLongText(ComplicationText.plainText("72"))
+            .build();
+
+        assertEquals(ComplicationDataDiff.FULL, diff(shortText("72").build(), newData));
+    }
+
+    private int diff(ComplicationData oldData, ComplicationData newData) {
+        return ComplicationDataDiff.diff(this.context, oldData, newData, NOW);
+    }
+
+    private static ComplicationData.Builder shortText(String text) {
+        return new ComplicationData.Builder(ComplicationData.TYPE_SHORT_TEXT)
+            .setShortText(ComplicationText.plainText(text));
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface
+
+import android.os.Debug
+import android.support.wearable.complications.rendering.CustomComplicationDrawable
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.After
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+
+// Checked-in budget of a steady state frame: raise it only with a good reason
+private const val STEADY_STATE_FRAME_BUDGET_OBJECTS = 0
+// Tolerated over a whole measurement, never per frame
+private const val ONE_OFF_TOLERANCE_OBJECTS = 1
+
+private const val SCREEN_SIZE = 454
+private const val FRAMES = 50
+// Start of a minute: frames of a scenario stay within it
+private const val BASE_TIME_MS = 1_589_500_800_000L
+
+/**
+ * Allocation budget of the draw path, once caches are built and the content is stable. See
+ * [WatchFaceDrawer.draw].
+ */
+@Suppress("DEPRECATION") // Thread allocation counting is deprecated but still implemented by ART
+@RunWith(AndroidJUnit4::class)
+class DrawAllocationTest {
+    private val fixture = DrawerFixture(SCREEN_SIZE)
+    private val instrumentation = fixture.instrumentation
+    private val canvas = fixture.canvas
+
+    @After
+    fun tearDown() {
+        fixture.release()
+    }
+
+    @Test
+    fun interactiveFramesDontAllocate() {
+        assertFramesWithinBudget("interactive", ambient = false, frameIntervalMs = 16)
+    }
+
+    @Test
+    fun ambientFramesDontAllocate() {
+        assertFramesWithinBudget("ambient", ambient = true, frameIntervalMs = 0)
+    }
+
+    @Test
+    fun secondsRingFramesDontAllocate() {
+        instrumentation.runOnMainSync {
+            fixture.storage.updateSettings { it.copy(showSecondsRing = true) }
+        }
+
+        assertFramesWithinBudget("seconds ring", ambient = false, frameIntervalMs = 1_000)
+    }
+
+    @Test
+    fun cachedComplicationFramesDontAllocate() {
+        val drawable = CustomComplicationDrawable(fixture.context, false)
+        var allocations = 0
+
+        instrumentation.runOnMainSync {
+            drawable.setBounds(0, 0, SCREEN_SIZE / 4, SCREEN_SIZE / 4)
+            drawable.setRenderCacheEnabled(true)
+            drawable.setComplicationData(DrawerFixture.shortTextData())
+            drawable.draw(canvas, BASE_TIME_MS)
+
+            allocations = countAllocations {
+                for(i in 0 until FRAMES) {
+                    drawable.draw(canvas, BASE_TIME_MS + i * 16L)
+                }
+            }
+
+            drawable.trimCaches()
+        }
+
+        assertWithinBudget("cached complication", allocations)
+    }
+
+    private fun assertFramesWithinBudget(name: String, ambient: Boolean, frameIntervalMs: Long) {
+        fixture.warmUp(BASE_TIME_MS, ambient)
+
+        var allocations = 0
+        instrumentation.runOnMainSync {
+            allocations = countAllocations {
+                for(i in 1..FRAMES) {
+                    fixture.draw(BASE_TIME_MS + i * frameIntervalMs, ambient)
+                }
+            }
+        }
+
+        assertWithinBudget(name, allocations)
+    }
+
+    private inline fun countAllocations(block: () -> Unit): Int {
+        Debug.startAllocCounting()
+        try {
+            Debug.resetThreadAllocCount()
+            block()
+            return Debug.getThreadAllocCount()
+        } finally {
+            Debug.stopAllocCounting()
+        }
+    }
+
+    /**
+     * Checks the total so that an allocation every few frames can't round down to 0
+     */
+    private fun assertWithinBudget(name: String, allocations: Int) {
+        val budget = STEADY_STATE_FRAME_BUDGET_OBJECTS * FRAMES + ONE_OFF_TOLERANCE_OBJECTS
+        assertTrue("$name frames allocated $allocations objects over $FRAMES frames, budget is $budget",
+            allocations <= budget)
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.support.wearable.complications.ComplicationData
+import android.support.wearable.complications.ComplicationText
+import android.support.wearable.complications.rendering.CustomComplicationDrawable
+import androidx.test.platform.app.InstrumentationRegistry
+import com.benoitletondor.pixelminimalwatchface.PixelMinimalWatchFace.Companion.BOTTOM_COMPLICATION_ID
+import com.benoitletondor.pixelminimalwatchface.PixelMinimalWatchFace.Companion.LEFT_COMPLICATION_ID
+import com.benoitletondor.pixelminimalwatchface.PixelMinimalWatchFace.Companion.MIDDLE_COMPLICATION_ID
+import com.benoitletondor.pixelminimalwatchface.PixelMinimalWatchFace.Companion.RIGHT_COMPLICATION_ID
+import com.benoitletondor.pixelminimalwatchface.model.ComplicationColorsProvider
+
+private const val WARM_UP_ROUNDS = 10
+private const val WARM_UP_ROUND_DELAY_MS = 200L
+
+/**
+ * A [WatchFaceDrawerImpl] with text data in its 4 complications, drawing on a square bitmap.
+ */
+class DrawerFixture(screenSize: Int) {
+    val instrumentation = InstrumentationRegistry.getInstrumentation()
+    val context = instrumentation.targetContext
+    val storage = FakeStorage()
+    val drawer = WatchFaceDrawerImpl()
+    private val bitmap = Bitmap.createBitmap(screenSize, screenSize, Bitmap.Config.ARGB_8888)
+    val canvas = Canvas(bitmap)
+
+    init {
+        instrumentation.runOnMainSync {
+            val complicationColors = ComplicationColorsProvider.getDefaultComplicationColors(context)
+            val complicationSlots = ComplicationSlots(arrayOf(
+                ComplicationSlot(LEFT_COMPLICATION_ID, CustomComplicationDrawable(context, false)),
+                ComplicationSlot(MIDDLE_COMPLICATION_ID, CustomComplicationDrawable(context, false)),
+                ComplicationSlot(RIGHT_COMPLICATION_ID, CustomComplicationDrawable(context, false)),
+                ComplicationSlot(BOTTOM_COMPLICATION_ID, CustomComplicationDrawable(context, true))
+            ))
+
+            drawer.setFrameProfiler(FrameProfiler(complicationSlots.size))
+            drawer.onCreate(context, storage, StartupTrace()) { }
+            drawer.setComplicationSlots(complicationSlots)
+            drawer.onComplicationColorsUpdate(complicationColors)
+            drawer.onSurfaceChanged(screenSize, screenSize)
+
+            for(i in 0 until complicationSlots.size) {
+                val slot = complicationSlots[i]
+                val data = if( slot.id == BOTTOM_COMPLICATION_ID ) { longTextData() } else { shortTextData() }
+                slot.drawable.setRenderCacheEnabled(true)
+                slot.drawable.setComplicationData(data)
+                slot.data = data
+                drawer.onComplicationDataUpdate(slot, complicationColors)
+            }
+        }
+    }
+
+    fun release() {
+        instrumentation.runOnMainSync {
+            drawer.onDestroy()
+        }
+        bitmap.recycle()
+    }
+
+    /**
+     * Draws until the resources loaded in background are available and every cache is built
+     */
+    fun warmUp(timeMillis: Long, ambient: Boolean) {
+        for(round in 0 until WARM_UP_ROUNDS) {
+            instrumentation.runOnMainSync {
+                draw(timeMillis, ambient)
+            }
+
+            Thread.sleep(WARM_UP_ROUND_DELAY_MS)
+            instrumentation.waitForIdleSync()
+        }
+    }
+
+    /**
+     * Must be called on the main thread
+     */
+    fun draw(timeMillis: Long, ambient: Boolean) {
+        drawer.draw(
+            canvas,
+            timeMillis,
+            muteMode = false,
+            ambient = ambient,
+            lowBitAmbient = false,
+            burnInProtection = false,
+            weatherComplicationData = null
+        )
+    }
+
+    companion object {
+        fun shortTextData(): ComplicationData = ComplicationData.Builder(ComplicationData.TYPE_SHORT_TEXT)
+            .setShortText(ComplicationText.plainText("72"))
+            .setShortTitle(ComplicationText.plainText("BPM"))
+            .build()
+
+        fun longTextData(): ComplicationData = ComplicationData.Builder(ComplicationData.TYPE_LONG_TEXT)
+            .setLongText(ComplicationText.plainText("Team meeting"))
+            .setLongTitle(ComplicationText.plainText("10:30"))
+            .build()
+    }
+}
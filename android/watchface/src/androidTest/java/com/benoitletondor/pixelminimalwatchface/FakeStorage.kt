@@ -0,0 +1,79 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface
+
+import com.benoitletondor.pixelminimalwatchface.helper.DEFAULT_TIME_SIZE
+import com.benoitletondor.pixelminimalwatchface.model.ComplicationColors
+import com.benoitletondor.pixelminimalwatchface.model.Storage
+import com.benoitletondor.pixelminimalwatchface.model.WatchFaceSettings
+
+/**
+ * In memory [Storage] whose settings are set by the test.
+ */
+class FakeStorage : Storage {
+    private var settings = WatchFaceSettings(
+        isUserPremium = true,
+        use24hTimeFormat = true,
+        showWearOSLogo = false,
+        showComplicationsInAmbientMode = true,
+        showFilledTimeInAmbientMode = false,
+        timeSize = DEFAULT_TIME_SIZE,
+        showSecondsRing = false,
+        showWeather = false,
+        showDebugOverlay = false
+    )
+    private var complicationColors: ComplicationColors? = null
+    private var ratingDisplayed = false
+    private var appVersion = -1
+    private val listeners = ArrayList<Storage.SettingsListener>()
+
+    fun updateSettings(transform: (WatchFaceSettings) -> WatchFaceSettings) {
+        val oldSettings = settings
+        settings = transform(oldSettings)
+        for(listener in listeners) {
+            listener.onSettingsChanged(oldSettings, settings)
+        }
+    }
+
+    override fun getComplicationColors(): ComplicationColors = complicationColors!!
+    override fun setComplicationColors(complicationColors: ComplicationColors) { this.complicationColors = complicationColors }
+    override fun isUserPremium(): Boolean = settings.isUserPremium
+    override fun setUserPremium(premium: Boolean) = updateSettings { it.copy(isUserPremium = premium) }
+    override fun setUse24hTimeFormat(use: Boolean) = updateSettings { it.copy(use24hTimeFormat = use) }
+    override fun getUse24hTimeFormat(): Boolean = settings.use24hTimeFormat
+    override fun getInstallTimestamp(): Long = 0
+    override fun hasRatingBeenDisplayed(): Boolean = ratingDisplayed
+    override fun setRatingDisplayed(sent: Boolean) { ratingDisplayed = sent }
+    override fun getAppVersion(): Int = appVersion
+    override fun setAppVersion(version: Int) { appVersion = version }
+    override fun shouldShowWearOSLogo(): Boolean = settings.showWearOSLogo
+    override fun setShouldShowWearOSLogo(shouldShowWearOSLogo: Boolean) = updateSettings { it.copy(showWearOSLogo = shouldShowWearOSLogo) }
+    override fun shouldShowComplicationsInAmbientMode(): Boolean = settings.showComplicationsInAmbientMode
+    override fun setShouldShowComplicationsInAmbientMode(show: Boolean) = updateSettings { it.copy(showComplicationsInAmbientMode = show) }
+    override fun shouldShowFilledTimeInAmbientMode(): Boolean = settings.showFilledTimeInAmbientMode
+    override fun setShouldShowFilledTimeInAmbientMode(showFilledTime: Boolean) = updateSettings { it.copy(showFilledTimeInAmbientMode = showFilledTime) }
+    override fun getTimeSize(): Int = settings.timeSize
+    override fun setTimeSize(timeSize: Int) = updateSettings { it.copy(timeSize = timeSize) }
+    override fun shouldShowSecondsRing(): Boolean = settings.showSecondsRing
+    override fun setShouldShowSecondsRing(showSecondsRing: Boolean) = updateSettings { it.copy(showSecondsRing = showSecondsRing) }
+    override fun shouldShowWeather(): Boolean = settings.showWeather
+    override fun setShouldShowWeather(show: Boolean) = updateSettings { it.copy(showWeather = show) }
+    override fun shouldShowDebugOverlay(): Boolean = settings.showDebugOverlay
+    override fun setShouldShowDebugOverlay(show: Boolean) = updateSettings { it.copy(showDebugOverlay = show) }
+    override fun getSettings(): WatchFaceSettings = settings
+    override fun addSettingsListener(listener: Storage.SettingsListener) { listeners.add(listener) }
+    override fun removeSettingsListener(listener: Storage.SettingsListener) { listeners.remove(listener) }
+}
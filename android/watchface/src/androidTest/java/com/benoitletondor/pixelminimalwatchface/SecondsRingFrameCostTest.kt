@@ -0,0 +1,79 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface
+
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.After
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+
+private const val TAG = "SecondsRingFrameCost"
+
+private const val SCREEN_SIZE = 454
+private const val MINUTES = 10
+// Start of a minute
+private const val BASE_TIME_MS = 1_589_500_800_000L
+
+/**
+ * Per-frame cost of seconds ring frames composited over the static layer, against full redraws
+ * of the same content at the same rate. The full redraws don't draw the ring, so they understate
+ * the cost of the path the static layer replaced.
+ */
+@RunWith(AndroidJUnit4::class)
+class SecondsRingFrameCostTest {
+    private val fixture = DrawerFixture(SCREEN_SIZE)
+
+    @After
+    fun tearDown() {
+        fixture.release()
+    }
+
+    @Test
+    fun compositedFramesAreCheaperThanFullRedraws() {
+        val fullRedrawNanos = medianFrameNanos()
+
+        fixture.instrumentation.runOnMainSync {
+            fixture.storage.updateSettings { it.copy(showSecondsRing = true) }
+        }
+        val compositedNanos = medianFrameNanos()
+
+        Log.i(TAG, "Median frame: full redraw ${fullRedrawNanos}ns, composited ${compositedNanos}ns")
+        assertTrue("Composited frames took ${compositedNanos}ns, full redraws ${fullRedrawNanos}ns",
+            compositedNanos < fullRedrawNanos)
+    }
+
+    /**
+     * Draws one frame per second over a few minutes. The median leaves out the static layer
+     * rebuild at the start of each minute.
+     */
+    private fun medianFrameNanos(): Long {
+        fixture.warmUp(BASE_TIME_MS, ambient = false)
+
+        val frameNanos = LongArray(MINUTES * 60)
+        fixture.instrumentation.runOnMainSync {
+            for(i in frameNanos.indices) {
+                val start = System.nanoTime()
+                fixture.draw(BASE_TIME_MS + (i + 1) * 1_000L, ambient = false)
+                frameNanos[i] = System.nanoTime() - start
+            }
+        }
+
+        frameNanos.sort()
+        return frameNanos[frameNanos.size / 2]
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package android.support.wearable.complications.rendering;
+
+import android.content.Context;
+import android.support.wearable.complications.ComplicationData;
+import android.support.wearable.complications.ComplicationText;
+import android.text.TextUtils;
+
+import androidx.annotation.Nullable;
+
+import com.benoitletondor.pixelminimalwatchface.helper.IconHelperKt;
+
+/**
+ * Structural comparison of 2 ComplicationData, used to avoid reloading icons and recomputing
+ * layouts when a provider sends the same content again.
+ */
+public final class ComplicationDataDiff {
+    /**
+     * Nothing that is rendered changed (tap action may have)
+     */
+    public static final int NONE = 0;
+    /**
+     * Only text content, ranged values or the active window changed, icons and layout are the
+     * same
+     */
+    public static final int TEXT_ONLY = 1;
+    /**
+     * Type, icons, images or text presence changed: layout and images must be reloaded
+     */
+    public static final int FULL = 2;
+
+    private ComplicationDataDiff() {}
+
+    static int diff(Context context, @Nullable ComplicationData oldData, @Nullable ComplicationData newData, long currentTimeMillis) {
+        if (oldData == newData) {
+            return NONE;
+        }
+
+        if (oldData == null || newData == null) {
+            return FULL;
+        }
+
+        if (oldData.getType() != newData.getType() || oldData.getImageStyle() != newData.getImageStyle()) {
+            return FULL;
+        }
+
+        if (!IconHelperKt.isSameIconAs(oldData.getIcon(), newData.getIcon()) ||
+            !IconHelperKt.isSameIconAs(oldData.getBurnInProtectionIcon(), newData.getBurnInProtectionIcon()) ||
+            !IconHelperKt.isSameIconAs(oldData.getSmallImage(), newData.getSmallImage()) ||
+            !IconHelperKt.isSameIconAs(oldData.getBurnInProtectionSmallImage(), newData.getBurnInProtectionSmallImage()) ||
+            !IconHelperKt.isSameIconAs(oldData.getLargeImage(), newData.getLargeImage())) {
+            return FULL;
+        }
+
+        // Presence of texts changes gravity, max lines and bounds
+        if ((oldData.getShortText() == null) != (newData.getShortText() == null) ||
+            (oldData.getShortTitle() == null) != (newData.getShortTitle() == null) ||
+            (oldData.getLongText() == null) != (newData.getLongText() == null) ||
+            (oldData.getLongTitle() == null) != (newData.getLongTitle() == null)) {
+            return FULL;
+        }
+
+        if (oldData.isActive(currentTimeMillis) != newData.isActive(currentTimeMillis)) {
+            return FULL;
+        }
+
+        // A new window changes when the content next appears or expires, even if it's rendered
+        // the same now
+        if (oldData.getStartDateTimeMillis() != newData.getStartDateTimeMillis() ||
+            oldData.getEndDateTimeMillis() != newData.getEndDateTimeMillis()) {
+            return TEXT_ONLY;
+        }
+
+        if (!isSameText(context, oldData.getShortText(), newData.getShortText(), currentTimeMillis) ||
+            !isSameText(context, oldData.getShortTitle(), newData.getShortTitle(), currentTimeMillis) ||
+            !isSameText(context, oldData.getLongText(), newData.getLongText(), currentTimeMillis) ||
+            !isSameText(context, oldData.getLongTitle(), newData.getLongTitle(), currentTimeMillis)) {
+            return TEXT_ONLY;
+        }
+
+        if (oldData.getType() == ComplicationData.TYPE_RANGED_VALUE &&
+            (oldData.getValue() != newData.getValue() ||
+                oldData.getMinValue() != newData.getMinValue() ||
+                oldData.getMaxValue() != newData.getMaxValue())) {
+            return TEXT_ONLY;
+        }
+
+        return NONE;
+    }
+
+    private static boolean isSameText(Context context, @Nullable ComplicationText text, @Nullable ComplicationText otherText, long currentTimeMillis) {
+        if (text == otherText) {
+            return true;
+        }
+
+        if (text == null || otherText == null) {
+            return false;
+        }
+
+        // 2 time dependent texts rendering the same now can still differ later (format, reference
+        // time...), which can't be compared without rendering them at every future time
+        if (text.getNextChangeTime(currentTimeMillis) != Long.MAX_VALUE ||
+            otherText.getNextChangeTime(currentTimeMillis) != Long.MAX_VALUE) {
+            return false;
+        }
+
+        return TextUtils.equals(text.getText(context, currentTimeMillis), otherText.getText(context, currentTimeMillis));
+    }
+}
@@ -21,7 +21,9 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.ColorFilter;
 import android.graphics.Rect;
 import android.graphics.Typeface;
@@ -72,6 +74,10 @@ public class CustomComplicationDrawable extends ComplicationDrawable {
         }
     }
 
+    /**
+     * Cap of the memory used by the render caches of all drawables
+     */
+    public static final long RENDER_CACHE_MAX_BYTES = 2 * 1024 * 1024;
     public static final Creator<CustomComplicationDrawable> CREATOR = new Creator<CustomComplicationDrawable>() {
         public CustomComplicationDrawable createFromParcel(Parcel source) {
             return new CustomComplicationDrawable(source);
@@ -83,9 +89,14 @@ public class CustomComplicationDrawable extends ComplicationDrawable {
     };
     private boolean mIsWide;
     private Context mContext;
-    private ComplicationRenderer mComplicationRenderer;
+    private CustomComplicationRenderer mComplicationRenderer;
     private final ComplicationStyle.Builder mActiveStyleBuilder;
     private final ComplicationStyle.Builder mAmbientStyleBuilder;
+    // Last styles handed to the renderer, what updateStyleIfRequired compares new builds against
+    @Nullable
+    private ComplicationStyle mActiveStyle;
+    @Nullable
+    private ComplicationStyle mAmbientStyle;
     private final Handler mMainThreadHandler;
     private final Runnable mUnhighlightRunnable;
     private final ComplicationRenderer.OnInvalidateListener mRendererInvalidateListener;
@@ -100,6 +111,30 @@ public class CustomComplicationDrawable extends ComplicationDrawable {
     private boolean mRangedValueProgressHidden;
     private boolean mIsInflatedFromXml;
     private boolean mAlreadyStyled;
+    private long mHighlightVersion;
+    private long mStyleVersion;
+
+    private boolean mRenderCacheEnabled;
+    @Nullable
+    private Bitmap mRenderCacheBitmap;
+    @Nullable
+    private Canvas mRenderCacheCanvas;
+    private boolean mIsRenderCacheValid;
+    private final Rect mRenderCacheBounds = new Rect();
+    private long mRenderCacheContentVersion;
+    private long mRenderCacheStyleVersion;
+    private boolean mRenderCacheInAmbientMode;
+    private boolean mRenderCacheLowBitAmbient;
+    private boolean mRenderCacheBurnInProtection;
+    private long mRenderCacheValidUntil;
+    private long mRenderCacheHits;
+    private long mRenderCacheMisses;
+    private long mRenderCacheRejections;
+
+    /**
+     * Memory used by the render caches of all drawables, only accessed from the main thread
+     */
+    private static long sRenderCacheBytes;
 
     public CustomComplicationDrawable() {
         this.mMainThreadHandler = new Handler(Looper.getMainLooper());
@@ -214,7 +249,9 @@ public class CustomComplicationDrawable extends ComplicationDrawable {
                 this.mHighlightDuration = (long)context.getResources().getInteger(android.support.wearable.R.integer.complicationDrawable_highlightDurationMs);
             }
 
-            this.mComplicationRenderer = new CustomComplicationRenderer(this.mContext, this.mActiveStyleBuilder.build(), this.mAmbientStyleBuilder.build(), this.mIsWide);
+            this.mActiveStyle = this.mActiveStyleBuilder.build();
+            this.mAmbientStyle = this.mAmbientStyleBuilder.build();
+            this.mComplicationRenderer = new CustomComplicationRenderer(this.mContext, this.mActiveStyle, this.mAmbientStyle, this.mIsWide);
             this.mComplicationRenderer.setOnInvalidateListener(this.mRendererInvalidateListener);
             if (this.mNoDataText == null) {
                 this.setNoDataText(context.getString(android.support.wearable.R.string.complicationDrawable_noDataText));
@@ -351,7 +388,128 @@ public class CustomComplicationDrawable extends ComplicationDrawable {
     public void draw(Canvas canvas) {
         this.assertInitialized();
         this.updateStyleIfRequired();
-        this.mComplicationRenderer.draw(canvas, this.mCurrentTimeMillis, this.mInAmbientMode, this.mLowBitAmbient, this.mBurnInProtection, this.mIsHighlighted);
+        if (!this.mRenderCacheEnabled || !this.drawFromRenderCache(canvas)) {
+            this.mComplicationRenderer.draw(canvas, this.mCurrentTimeMillis, this.mInAmbientMode, this.mLowBitAmbient, this.mBurnInProtection, this.mIsHighlighted);
+        }
+    }
+
+    /**
+     * When enabled, the complication is rendered into its own bounds sized bitmap that is only
+     * re-rendered when data, style, ambient mode, highlight or bounds change, or when a time
+     * dependent text ticks. Drawing is then a single bitmap blit.
+     * <p>
+     * All drawables share a {@link #RENDER_CACHE_MAX_BYTES} budget, a drawable that can't fit in
+     * it draws directly.
+     */
+    public void setRenderCacheEnabled(boolean enabled) {
+        this.mRenderCacheEnabled = enabled;
+        if (!enabled) {
+            this.releaseRenderCache();
+        }
+    }
+
+    public void releaseRenderCache() {
+        if (this.mRenderCacheBitmap != null) {
+            sRenderCacheBytes -= this.mRenderCacheBitmap.getAllocationByteCount();
+            this.mRenderCacheBitmap.recycle();
+            this.mRenderCacheBitmap = null;
+            this.mRenderCacheCanvas = null;
+        }
+
+        this.mIsRenderCacheValid = false;
+    }
+
+    /**
+     * Releases everything that can be rebuilt on the next draw: the render cache and the text
+     * layouts cache.
+     */
+    public void trimCaches() {
+        this.releaseRenderCache();
+        if (this.mComplicationRenderer != null) {
+            this.mComplicationRenderer.trimCaches();
+        }
+    }
+
+    private boolean drawFromRenderCache(Canvas canvas) {
+        Rect bounds = this.getBounds();
+        if (bounds.isEmpty() || !this.ensureRenderCacheBitmap(bounds.width(), bounds.height())) {
+            return false;
+        }
+
+        long contentVersion = this.getContentVersion();
+        if (!this.mIsRenderCacheValid ||
+            this.mRenderCacheContentVersion != contentVersion ||
+            this.mRenderCacheStyleVersion != this.mStyleVersion ||
+            this.mRenderCacheInAmbientMode != this.mInAmbientMode ||
+            this.mRenderCacheLowBitAmbient != this.mLowBitAmbient ||
+            this.mRenderCacheBurnInProtection != this.mBurnInProtection ||
+            this.mCurrentTimeMillis >= this.mRenderCacheValidUntil ||
+            !this.mRenderCacheBounds.equals(bounds)) {
+
+            this.mRenderCacheBitmap.eraseColor(Color.TRANSPARENT);
+            this.mRenderCacheCanvas.save();
+            this.mRenderCacheCanvas.translate((float)-bounds.left, (float)-bounds.top);
+            this.mComplicationRenderer.draw(this.mRenderCacheCanvas, this.mCurrentTimeMillis, this.mInAmbientMode, this.mLowBitAmbient, this.mBurnInProtection, this.mIsHighlighted);
+            this.mRenderCacheCanvas.restore();
+
+            this.mIsRenderCacheValid = true;
+            // Drawing may have loaded images and bumped the version, read it again
+            this.mRenderCacheContentVersion = this.getContentVersion();
+            this.mRenderCacheStyleVersion = this.mStyleVersion;
+            this.mRenderCacheInAmbientMode = this.mInAmbientMode;
+            this.mRenderCacheLowBitAmbient = this.mLowBitAmbient;
+            this.mRenderCacheBurnInProtection = this.mBurnInProtection;
+            this.mRenderCacheValidUntil = this.mComplicationRenderer.getNextRenderChangeTimeMillis(this.mCurrentTimeMillis);
+            this.mRenderCacheBounds.set(bounds);
+            this.mRenderCacheMisses++;
+        } else {
+            this.mRenderCacheHits++;
+        }
+
+        canvas.drawBitmap(this.mRenderCacheBitmap, (float)bounds.left, (float)bounds.top, null);
+        return true;
+    }
+
+    private boolean ensureRenderCacheBitmap(int width, int height) {
+        if (this.mRenderCacheBitmap != null && this.mRenderCacheBitmap.getWidth() == width && this.mRenderCacheBitmap.getHeight() == height) {
+            return true;
+        }
+
+        this.releaseRenderCache();
+
+        long bytes = (long)width * height * 4;
+        if (sRenderCacheBytes + bytes > RENDER_CACHE_MAX_BYTES) {
+            this.mRenderCacheRejections++;
+            return false;
+        }
+
+        this.mRenderCacheBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        this.mRenderCacheCanvas = new Canvas(this.mRenderCacheBitmap);
+        sRenderCacheBytes += this.mRenderCacheBitmap.getAllocationByteCount();
+        return true;
+    }
+
+    public long getRenderCacheHits() {
+        return this.mRenderCacheHits;
+    }
+
+    public long getRenderCacheMisses() {
+        return this.mRenderCacheMisses;
+    }
+
+    /**
+     * @return how many times the cache bitmap couldn't be allocated because of the memory cap
+     */
+    public long getRenderCacheRejections() {
+        return this.mRenderCacheRejections;
+    }
+
+    public long getRenderCacheBytes() {
+        return this.mRenderCacheBitmap == null ? 0 : this.mRenderCacheBitmap.getAllocationByteCount();
+    }
+
+    public static long getTotalRenderCacheBytes() {
+        return sRenderCacheBytes;
     }
 
     public void setAlpha(int alpha) {
@@ -373,33 +531,43 @@ public class CustomComplicationDrawable extends ComplicationDrawable {
     }
 
     public void setNoDataText(@Nullable CharSequence noDataText) {
-        if (noDataText == null) {
-            this.mNoDataText = "";
-        } else {
-            this.mNoDataText = noDataText.subSequence(0, noDataText.length());
+        CharSequence newNoDataText = noDataText == null ? "" : noDataText.subSequence(0, noDataText.length());
+        if (this.mNoDataText != null && TextUtils.equals(this.mNoDataText, newNoDataText)) {
+            return;
         }
 
+        this.mNoDataText = newNoDataText;
+
         if (this.mComplicationRenderer != null) {
             this.mComplicationRenderer.setNoDataText(this.mNoDataText);
         }
 
+        this.mStyleVersion++;
     }
 
     public void setRangedValueProgressHidden(boolean rangedValueProgressHidden) {
+        if (this.mRangedValueProgressHidden == rangedValueProgressHidden) {
+            return;
+        }
+
         this.mRangedValueProgressHidden = rangedValueProgressHidden;
         if (this.mComplicationRenderer != null) {
             this.mComplicationRenderer.setRangedValueProgressHidden(rangedValueProgressHidden);
         }
 
+        this.mStyleVersion++;
     }
 
     public boolean isRangedValueProgressHidden() {
         return this.mRangedValueProgressHidden;
     }
 
-    public void setComplicationData(@Nullable ComplicationData complicationData) {
+    /**
+     * @return what changed compared to the previous data, one of the {@link ComplicationDataDiff} constants
+     */
+    public int setComplicationData(@Nullable ComplicationData complicationData) {
         this.assertInitialized();
-        this.mComplicationRenderer.setComplicationData(complicationData);
+        return this.mComplicationRenderer.setComplicationData(complicationData);
     }
 
     public void setInAmbientMode(boolean inAmbientMode) {
@@ -419,6 +587,10 @@ public class CustomComplicationDrawable extends ComplicationDrawable {
     }
 
     public void setIsHighlighted(boolean isHighlighted) {
+        if (this.mIsHighlighted != isHighlighted) {
+            this.mHighlightVersion++;
+        }
+
         this.mIsHighlighted = isHighlighted;
     }
 
@@ -679,18 +851,90 @@ public class CustomComplicationDrawable extends ComplicationDrawable {
         return this.mHighlightDuration;
     }
 
+    /**
+     * @return a counter that changes every time the rendered content changes (data, loaded
+     * images, highlight). Style changes are not included.
+     */
+    public long getContentVersion() {
+        if (this.mComplicationRenderer == null) {
+            return this.mHighlightVersion;
+        }
+
+        return this.mComplicationRenderer.getContentVersion() + this.mHighlightVersion;
+    }
+
+    /**
+     * @return how many data updates were skipped because nothing rendered changed
+     */
+    public long getNoOpUpdates() {
+        return this.mComplicationRenderer == null ? 0 : this.mComplicationRenderer.getNoOpUpdates();
+    }
+
+    /**
+     * @return how many data updates only changed texts or values, skipping images and layout
+     */
+    public long getTextOnlyUpdates() {
+        return this.mComplicationRenderer == null ? 0 : this.mComplicationRenderer.getTextOnlyUpdates();
+    }
+
+    public long getFullUpdates() {
+        return this.mComplicationRenderer == null ? 0 : this.mComplicationRenderer.getFullUpdates();
+    }
+
     private ComplicationStyle.Builder getComplicationStyleBuilder(boolean isAmbient) {
         return isAmbient ? this.mAmbientStyleBuilder : this.mActiveStyleBuilder;
     }
 
     private void updateStyleIfRequired() {
         if (!this.mIsStyleUpToDate) {
-            this.mComplicationRenderer.updateStyle(this.mActiveStyleBuilder.build(), this.mAmbientStyleBuilder.build());
+            ComplicationStyle activeStyle = this.mActiveStyleBuilder.build();
+            ComplicationStyle ambientStyle = this.mAmbientStyleBuilder.build();
+            // Setters only mark the style dirty, this is the one place it's compared. The style
+            // version keys the render cache: only bump it when a value actually changed
+            // Keeping the previous instance of an unchanged style spares the renderer rebuilding its paints
+            if (isSameStyle(this.mActiveStyle, activeStyle)) {
+                activeStyle = this.mActiveStyle;
+            }
+            if (isSameStyle(this.mAmbientStyle, ambientStyle)) {
+                ambientStyle = this.mAmbientStyle;
+            }
+
+            if (activeStyle != this.mActiveStyle || ambientStyle != this.mAmbientStyle) {
+                this.mComplicationRenderer.updateStyle(activeStyle, ambientStyle);
+                this.mStyleVersion++;
+            }
+
+            this.mActiveStyle = activeStyle;
+            this.mAmbientStyle = ambientStyle;
             this.mIsStyleUpToDate = true;
         }
 
     }
 
+    private static boolean isSameStyle(@Nullable ComplicationStyle style, ComplicationStyle other) {
+        return style != null &&
+            style.getBackgroundColor() == other.getBackgroundColor() &&
+            style.getBackgroundDrawable() == other.getBackgroundDrawable() &&
+            style.getTextColor() == other.getTextColor() &&
+            style.getTitleColor() == other.getTitleColor() &&
+            Objects.equals(style.getColorFilter(), other.getColorFilter()) &&
+            style.getIconColor() == other.getIconColor() &&
+            Objects.equals(style.getTextTypeface(), other.getTextTypeface()) &&
+            Objects.equals(style.getTitleTypeface(), other.getTitleTypeface()) &&
+            style.getTextSize() == other.getTextSize() &&
+            style.getTitleSize() == other.getTitleSize() &&
+            style.getBorderColor() == other.getBorderColor() &&
+            style.getBorderStyle() == other.getBorderStyle() &&
+            style.getBorderDashWidth() == other.getBorderDashWidth() &&
+            style.getBorderDashGap() == other.getBorderDashGap() &&
+            style.getBorderRadius() == other.getBorderRadius() &&
+            style.getBorderWidth() == other.getBorderWidth() &&
+            style.getRangedValueRingWidth() == other.getRangedValueRingWidth() &&
+            style.getRangedValuePrimaryColor() == other.getRangedValuePrimaryColor() &&
+            style.getRangedValueSecondaryColor() == other.getRangedValueSecondaryColor() &&
+            style.getHighlightColor() == other.getHighlightColor();
+    }
+
     private void assertInitialized() {
         if (this.mContext == null) {
             throw new IllegalStateException("ComplicationDrawable does not have a context. Use setContext(Context) to set it first.");
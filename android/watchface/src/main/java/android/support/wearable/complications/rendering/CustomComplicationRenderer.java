@@ -37,6 +37,7 @@ import android.support.wearable.complications.rendering.utils.ShortTextLayoutHel
 import android.support.wearable.complications.rendering.utils.SmallImageLayoutHelper;
 import android.text.Layout;
 import android.text.TextPaint;
+import android.util.SparseArray;
 import android.view.Gravity;
 
 import androidx.annotation.Nullable;
@@ -44,7 +45,6 @@ import androidx.annotation.VisibleForTesting;
 
 import com.benoitletondor.pixelminimalwatchface.helper.ContextExtensionKt;
 
-import java.util.Objects;
 
 import static android.support.wearable.complications.ComplicationData.TYPE_RANGED_VALUE;
 import static android.support.wearable.complications.ComplicationData.TYPE_SHORT_TEXT;
@@ -54,6 +54,14 @@ import static android.text.Layout.Alignment.ALIGN_CENTER;
  * This is a copy of ComplicationRenderer code with bad hacks, don't look at it, it's horrible!
  */
 public class CustomComplicationRenderer extends ComplicationRenderer {
+    private static final int LAYOUT_EMPTY = 0;
+    private static final int LAYOUT_SHORT_TEXT = 1;
+    private static final int LAYOUT_LONG_TEXT = 2;
+    private static final int LAYOUT_ICON = 3;
+    private static final int LAYOUT_RANGED_VALUE = 4;
+    private static final int LAYOUT_SMALL_IMAGE = 5;
+    private static final int LAYOUT_LARGE_IMAGE = 6;
+
     private final Context mContext;
     private ComplicationData mComplicationData;
     private final Rect mBounds = new Rect();
@@ -88,6 +96,11 @@ public class CustomComplicationRenderer extends ComplicationRenderer {
     ComplicationRenderer.PaintSet mActivePaintSet = null;
     @VisibleForTesting
     ComplicationRenderer.PaintSet mAmbientPaintSet = null;
+    /**
+     * Active paint set followed by the 4 ambient ones (low bit, burn in protection), built on
+     * style changes so that drawing never allocates one. See {@link #getPaintSetIndex}.
+     */
+    private final ComplicationRenderer.PaintSet[] mPaintSets = new ComplicationRenderer.PaintSet[5];
     @Nullable
     private TextPaint mMainTextPaint = null;
     @Nullable
@@ -100,9 +113,17 @@ public class CustomComplicationRenderer extends ComplicationRenderer {
     private ComplicationRenderer.OnInvalidateListener mInvalidateListener;
     private final Rect mMainTextAdjustedBounds = new Rect();
     private final Rect mSubTextAdjustedBounds = new Rect();
+    private final Rect mInnerBounds = new Rect();
+    // Layout helpers keep no state between 2 updates, one of each is enough
+    private final SparseArray<LayoutHelper> mLayoutHelpers = new SparseArray<>();
+    private final CustomTextLayoutHelper mWideTextLayoutHelper = new CustomTextLayoutHelper();
     private int mTextPadding;
     private boolean mIsWide;
     private int mMinHeightFor2LinesTextOnWideComplication;
+    private long mContentVersion;
+    private long mNoOpUpdates;
+    private long mTextOnlyUpdates;
+    private long mFullUpdates;
 
     public CustomComplicationRenderer(Context context, ComplicationStyle activeStyle, ComplicationStyle ambientStyle, boolean isWide) {
         super(context, activeStyle, ambientStyle);
@@ -115,38 +136,133 @@ public class CustomComplicationRenderer extends ComplicationRenderer {
         this.mSubTextRenderer = new CustomTextRenderer(mIsWide ? 13 : 7);
     }
 
+    /**
+     * Paint sets are only rebuilt for the style instances that changed: pass the current instance
+     * again for a mode whose style is the same.
+     */
     public void updateStyle(ComplicationStyle activeStyle, ComplicationStyle ambientStyle) {
-        this.mActiveStyle = activeStyle;
-        this.mAmbientStyle = ambientStyle;
-        this.mActivePaintSet = new ComplicationRenderer.PaintSet(activeStyle, false, false, false);
-        this.mAmbientPaintSet = new ComplicationRenderer.PaintSet(ambientStyle, true, false, false);
-        this.calculateBounds();
+        // Called by the super constructor before the fields of this class are initialized: the
+        // constructor of this class calls it again once they are
+        if (this.mPaintSets == null) {
+            return;
+        }
+
+        int previousBorderRadius = this.mActiveStyle == null || this.mAmbientStyle == null ? -1 : this.getMaxBorderRadius();
+
+        if (activeStyle != this.mActiveStyle) {
+            this.mActiveStyle = activeStyle;
+            this.mPaintSets[0] = new ComplicationRenderer.PaintSet(activeStyle, false, false, false);
+            this.mActivePaintSet = this.mPaintSets[0];
+        }
+
+        if (ambientStyle != this.mAmbientStyle) {
+            this.mAmbientStyle = ambientStyle;
+            for (int i = 0; i < 4; i++) {
+                this.mPaintSets[i + 1] = new ComplicationRenderer.PaintSet(ambientStyle, true, (i & 1) != 0, (i & 2) != 0);
+            }
+            this.mAmbientPaintSet = this.mPaintSets[1];
+        }
+
+        // The border radius is the only part of the style the bounds depend on
+        if (this.getMaxBorderRadius() != previousBorderRadius) {
+            this.calculateBounds();
+        }
     }
 
-    public void setComplicationData(@Nullable ComplicationData data) {
-        if (!Objects.equals(this.mComplicationData, data)) {
-            if (data == null) {
-                this.mComplicationData = null;
-            } else {
-                if (data.getType() == 10) {
-                    if (this.mHasNoData) {
-                        return;
-                    }
+    private LayoutHelper getLayoutHelper(int layout) {
+        LayoutHelper helper = this.mLayoutHelpers.get(layout);
+        if (helper == null) {
+            switch (layout) {
+                case LAYOUT_SHORT_TEXT:
+                    helper = new ShortTextLayoutHelper();
+                    break;
+                case LAYOUT_LONG_TEXT:
+                    helper = new LongTextLayoutHelper();
+                    break;
+                case LAYOUT_ICON:
+                    helper = new IconLayoutHelper();
+                    break;
+                case LAYOUT_RANGED_VALUE:
+                    helper = new RangedValueLayoutHelper();
+                    break;
+                case LAYOUT_SMALL_IMAGE:
+                    helper = new SmallImageLayoutHelper();
+                    break;
+                case LAYOUT_LARGE_IMAGE:
+                    helper = new LargeImageLayoutHelper();
+                    break;
+                default:
+                    helper = new LayoutHelper();
+            }
+
+            this.mLayoutHelpers.put(layout, helper);
+        }
+
+        return helper;
+    }
+
+    private int getMaxBorderRadius() {
+        return Math.max(this.getBorderRadius(this.mActiveStyle), this.getBorderRadius(this.mAmbientStyle));
+    }
+
+    private static int getPaintSetIndex(boolean inAmbientMode, boolean lowBitAmbient, boolean burnInProtection) {
+        if (!inAmbientMode) {
+            return 0;
+        }
+
+        return 1 + (lowBitAmbient ? 1 : 0) + (burnInProtection ? 2 : 0);
+    }
 
-                    this.mHasNoData = true;
-                    this.mComplicationData = (new ComplicationData.Builder(3)).setShortText(ComplicationText.plainText(this.mNoDataText)).build();
+    /**
+     * @return what changed compared to the previous data, one of the {@link ComplicationDataDiff} constants
+     */
+    public int setComplicationData(@Nullable ComplicationData data) {
+        if (data != null && data.getType() == 10) {
+            if (this.mHasNoData) {
+                this.mNoOpUpdates++;
+                return ComplicationDataDiff.NONE;
+            }
+
+            this.mHasNoData = true;
+            this.mComplicationData = (new ComplicationData.Builder(3)).setShortText(ComplicationText.plainText(this.mNoDataText)).build();
+            this.onFullUpdate();
+            return ComplicationDataDiff.FULL;
+        }
+
+        int diff = this.mHasNoData ? ComplicationDataDiff.FULL : ComplicationDataDiff.diff(this.mContext, this.mComplicationData, data, System.currentTimeMillis());
+        this.mComplicationData = data;
+        this.mHasNoData = false;
+
+        switch (diff) {
+            case ComplicationDataDiff.NONE:
+                // Keep the new instance for its tap action and active window, nothing to redraw
+                this.mNoOpUpdates++;
+                break;
+            case ComplicationDataDiff.TEXT_ONLY:
+                // Texts and the active window are read at draw time, icons and bounds are still valid
+                this.mTextOnlyUpdates++;
+                this.mContentVersion++;
+                break;
+            default:
+                if (data == null) {
+                    this.mFullUpdates++;
+                    this.mContentVersion++;
                 } else {
-                    this.mComplicationData = data;
-                    this.mHasNoData = false;
+                    this.onFullUpdate();
                 }
+        }
 
-                if (!this.loadDrawableIconAndImages()) {
-                    this.invalidate();
-                }
+        return diff;
+    }
 
-                this.calculateBounds();
-            }
+    private void onFullUpdate() {
+        this.mFullUpdates++;
+        this.mContentVersion++;
+        if (!this.loadDrawableIconAndImages()) {
+            this.invalidate();
         }
+
+        this.calculateBounds();
     }
 
     public boolean setBounds(Rect bounds) {
@@ -191,11 +307,7 @@ public class CustomComplicationRenderer extends ComplicationRenderer {
     public void draw(Canvas canvas, long currentTimeMillis, boolean inAmbientMode, boolean lowBitAmbient, boolean burnInProtection, boolean showTapHighlight) {
         if (this.mComplicationData != null && this.mComplicationData.getType() != 2 && this.mComplicationData.getType() != 1 && this.mComplicationData.isActive(currentTimeMillis)) {
             if (!this.mBounds.isEmpty()) {
-                if (inAmbientMode && (this.mAmbientPaintSet.lowBitAmbient != lowBitAmbient || this.mAmbientPaintSet.burnInProtection != burnInProtection)) {
-                    this.mAmbientPaintSet = new ComplicationRenderer.PaintSet(this.mAmbientStyle, true, lowBitAmbient, burnInProtection);
-                }
-
-                ComplicationRenderer.PaintSet currentPaintSet = inAmbientMode ? this.mAmbientPaintSet : this.mActivePaintSet;
+                ComplicationRenderer.PaintSet currentPaintSet = this.mPaintSets[getPaintSetIndex(inAmbientMode, lowBitAmbient, burnInProtection)];
                 this.updateComplicationTexts(currentTimeMillis);
                 canvas.save();
                 canvas.translate((float)this.mBounds.left, (float)this.mBounds.top);
@@ -221,6 +333,7 @@ public class CustomComplicationRenderer extends ComplicationRenderer {
     }
 
     private void invalidate() {
+        this.mContentVersion++;
         if (this.mInvalidateListener != null) {
             this.mInvalidateListener.onInvalidate();
         }
@@ -413,33 +526,33 @@ public class CustomComplicationRenderer extends ComplicationRenderer {
             switch(this.mComplicationData.getType()) {
                 case 3:
                 case 9:
-                    currentLayoutHelper = new ShortTextLayoutHelper();
+                    currentLayoutHelper = this.getLayoutHelper(LAYOUT_SHORT_TEXT);
                     break;
                 case 4:
-                    currentLayoutHelper = new LongTextLayoutHelper();
+                    currentLayoutHelper = this.getLayoutHelper(LAYOUT_LONG_TEXT);
                     break;
                 case 5:
                     if (this.mRangedValueProgressHidden) {
                         if (this.mComplicationData.getShortText() == null) {
-                            currentLayoutHelper = new IconLayoutHelper();
+                            currentLayoutHelper = this.getLayoutHelper(LAYOUT_ICON);
                         } else {
-                            currentLayoutHelper = new ShortTextLayoutHelper();
+                            currentLayoutHelper = this.getLayoutHelper(LAYOUT_SHORT_TEXT);
                         }
                     } else {
-                        currentLayoutHelper = new RangedValueLayoutHelper();
+                        currentLayoutHelper = this.getLayoutHelper(LAYOUT_RANGED_VALUE);
                     }
                     break;
                 case 6:
-                    currentLayoutHelper = new IconLayoutHelper();
+                    currentLayoutHelper = this.getLayoutHelper(LAYOUT_ICON);
                     break;
                 case 7:
-                    currentLayoutHelper = new SmallImageLayoutHelper();
+                    currentLayoutHelper = this.getLayoutHelper(LAYOUT_SMALL_IMAGE);
                     break;
                 case 8:
-                    currentLayoutHelper = new LargeImageLayoutHelper();
+                    currentLayoutHelper = this.getLayoutHelper(LAYOUT_LARGE_IMAGE);
                     break;
                 default:
-                    currentLayoutHelper = new LayoutHelper();
+                    currentLayoutHelper = this.getLayoutHelper(LAYOUT_EMPTY);
             }
 
             currentLayoutHelper.update(this.mBounds.width(), this.mBounds.height(), this.mComplicationData);
@@ -470,7 +583,7 @@ public class CustomComplicationRenderer extends ComplicationRenderer {
             if( mIsWide && mBackgroundBounds.height() < mMinHeightFor2LinesTextOnWideComplication ) {
                 this.mSubTextBounds.setEmpty();
 
-                CustomTextLayoutHelper helper = new CustomTextLayoutHelper();
+                CustomTextLayoutHelper helper = this.mWideTextLayoutHelper;
                 helper.update(this.mBounds.width(), this.mBounds.height(), this.mComplicationData);
                 helper.getTextBounds(this.mMainTextBounds);
                 mMainTextRenderer.setGravity(Gravity.CENTER);
@@ -485,8 +598,8 @@ public class CustomComplicationRenderer extends ComplicationRenderer {
                 this.mSubTextRenderer.setRelativePadding(0.0F, 0.0F, 0.0F, 0.0F);
             }
 
-            Rect innerBounds = new Rect();
-            LayoutUtils.getInnerBounds(innerBounds, this.mBackgroundBounds, (float)Math.max(this.getBorderRadius(this.mActiveStyle), this.getBorderRadius(this.mAmbientStyle)));
+            Rect innerBounds = this.mInnerBounds;
+            LayoutUtils.getInnerBounds(innerBounds, this.mBackgroundBounds, (float)this.getMaxBorderRadius());
             if (!this.mMainTextBounds.intersect(innerBounds)) {
                 this.mMainTextBounds.setEmpty();
             }
@@ -657,4 +770,58 @@ public class CustomComplicationRenderer extends ComplicationRenderer {
     ComplicationData getComplicationData() {
         return this.mComplicationData;
     }
+
+    /**
+     * @return a counter incremented every time something that changes the rendered content
+     * happens (new data, loaded icon or image)
+     */
+    long getContentVersion() {
+        return this.mContentVersion;
+    }
+
+    void trimCaches() {
+        this.mMainTextRenderer.trimFittedLayoutCache();
+        this.mSubTextRenderer.trimFittedLayoutCache();
+    }
+
+    long getNoOpUpdates() {
+        return this.mNoOpUpdates;
+    }
+
+    long getTextOnlyUpdates() {
+        return this.mTextOnlyUpdates;
+    }
+
+    long getFullUpdates() {
+        return this.mFullUpdates;
+    }
+
+    /**
+     * @return the next time after {@code currentTimeMillis} at which the rendered content will
+     * change without new data: a time dependent text tick or the start/end of the active window
+     */
+    long getNextRenderChangeTimeMillis(long currentTimeMillis) {
+        ComplicationData data = this.mComplicationData;
+        if (data == null) {
+            return Long.MAX_VALUE;
+        }
+
+        long nextChangeTime = Long.MAX_VALUE;
+        if (data.getStartDateTimeMillis() > currentTimeMillis) {
+            nextChangeTime = data.getStartDateTimeMillis();
+        }
+        if (data.getEndDateTimeMillis() >= currentTimeMillis && data.getEndDateTimeMillis() != Long.MAX_VALUE) {
+            nextChangeTime = Math.min(nextChangeTime, data.getEndDateTimeMillis() + 1);
+        }
+
+        nextChangeTime = Math.min(nextChangeTime, getNextChangeTime(data.getShortText(), currentTimeMillis));
+        nextChangeTime = Math.min(nextChangeTime, getNextChangeTime(data.getShortTitle(), currentTimeMillis));
+        nextChangeTime = Math.min(nextChangeTime, getNextChangeTime(data.getLongText(), currentTimeMillis));
+        nextChangeTime = Math.min(nextChangeTime, getNextChangeTime(data.getLongTitle(), currentTimeMillis));
+        return nextChangeTime;
+    }
+
+    private static long getNextChangeTime(@Nullable ComplicationText text, long currentTimeMillis) {
+        return text == null ? Long.MAX_VALUE : text.getNextChangeTime(currentTimeMillis);
+    }
 }
@@ -19,6 +19,7 @@ import android.annotation.SuppressLint;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Rect;
+import android.graphics.Typeface;
 import android.text.Layout;
 import android.text.SpannableStringBuilder;
 import android.text.Spanned;
@@ -33,6 +34,7 @@ import android.text.style.SubscriptSpan;
 import android.text.style.SuperscriptSpan;
 import android.text.style.TypefaceSpan;
 import android.text.style.UnderlineSpan;
+import android.util.LruCache;
 import android.view.Gravity;
 
 import androidx.annotation.Nullable;
@@ -44,6 +46,10 @@ import java.util.Objects;
  * This is a copy of TextRenderer code with bad hacks, don't look at it, it's horrible!
  */
 public class CustomTextRenderer extends TextRenderer {
+    /**
+     * Number of fitted layouts kept per renderer: covers active + ambient for a couple of texts
+     */
+    private static final int FITTED_LAYOUT_CACHE_SIZE = 8;
     private static final Class<?>[] SPAN_WHITELIST = new Class[]{ForegroundColorSpan.class, LocaleSpan.class, SubscriptSpan.class, SuperscriptSpan.class, StrikethroughSpan.class, StyleSpan.class, TypefaceSpan.class, UnderlineSpan.class};
     private final Rect mBounds = new Rect();
     private TextPaint mPaint;
@@ -68,6 +74,8 @@ public class CustomTextRenderer extends TextRenderer {
     private boolean mInAmbientMode;
     private boolean mNeedUpdateLayout;
     private boolean mNeedCalculateBounds;
+    private final LruCache<FittedLayoutKey, FittedLayout> mFittedLayoutCache = new LruCache<>(FITTED_LAYOUT_CACHE_SIZE);
+    private final FittedLayoutKey mLookupKey = new FittedLayoutKey();
 
     public CustomTextRenderer(int minCharactersShown) {
         this.mEllipsize = TextUtils.TruncateAt.END;
@@ -99,11 +107,29 @@ public class CustomTextRenderer extends TextRenderer {
         }
     }
 
+    /**
+     * Drops the fitted layouts kept for the texts that are not displayed anymore
+     */
+    public void trimFittedLayoutCache() {
+        this.mFittedLayoutCache.evictAll();
+    }
+
     public void requestUpdateLayout() {
         this.mNeedUpdateLayout = true;
     }
 
     public void setText(@Nullable CharSequence text) {
+        if (text != null && isPlainText(text)) {
+            // Fast path: most providers send span-free texts, no need to sanitize them
+            this.mOriginalText = text;
+            if (!(this.mText instanceof String) || !TextUtils.equals(this.mText, text)) {
+                this.mText = text.toString();
+                this.mNeedUpdateLayout = true;
+            }
+
+            return;
+        }
+
         if (!Objects.equals(this.mOriginalText, text)) {
             this.mOriginalText = text;
             this.mText = this.applySpanWhitelist(this.mOriginalText);
@@ -132,6 +158,10 @@ public class CustomTextRenderer extends TextRenderer {
         }
     }
 
+    private static boolean isPlainText(CharSequence text) {
+        return !(text instanceof Spanned) || ((Spanned) text).getSpans(0, text.length(), Object.class).length == 0;
+    }
+
     private boolean isSpanAllowed(Object span) {
         Class[] var2 = SPAN_WHITELIST;
         int var3 = var2.length;
@@ -220,23 +250,24 @@ public class CustomTextRenderer extends TextRenderer {
             this.setPaint(new TextPaint());
         }
         int availableWidth = (int)((float)width * (1.0F - this.mRelativePaddingStart - this.mRelativePaddingEnd));
-        TextPaint paint = new TextPaint(this.mPaint);
-        paint.setTextSize(mPaint.getTextSize());
-        float textWidth = paint.measureText(this.mText, 0, this.mText.length());
-        if (textWidth > (float)availableWidth) {
-            int charactersShown = this.mMinCharactersShown;
-            if (this.mEllipsize != null && this.mEllipsize != TextUtils.TruncateAt.MARQUEE) {
-                ++charactersShown;
-            }
-
-            charactersShown = Math.min(charactersShown, this.mText.length());
-            CharSequence textToFit = this.mText.subSequence(0, charactersShown);
 
-            for(textWidth = paint.measureText(textToFit, 0, textToFit.length()); textWidth > (float)availableWidth; textWidth = paint.measureText(textToFit, 0, textToFit.length())) {
-                paint.setTextSize(paint.getTextSize() - 1.0F);
+        // Spanned texts are not cached: their spans are not part of the key
+        boolean cacheable = this.mText instanceof String;
+        if (cacheable) {
+            this.mLookupKey.set((String) this.mText, this.mPaint, availableWidth, this.mMaxLines, this.mInAmbientMode, this.mAlignment, this.mEllipsize, this.mMinCharactersShown);
+            FittedLayout cachedLayout = this.mFittedLayoutCache.get(this.mLookupKey);
+            if (cachedLayout != null) {
+                this.mStaticLayout = cachedLayout.layout;
+                if (this.mInAmbientMode) {
+                    this.mAmbientModeText = cachedLayout.ambientModeText;
+                }
+                return;
             }
         }
 
+        TextPaint paint = new TextPaint(this.mPaint);
+        paint.setTextSize(fitTextSize(paint, availableWidth));
+
         CharSequence text = this.mText;
         if (this.mInAmbientMode) {
             this.mAmbientModeText = EmojiHelper.replaceEmoji(this.mText, 32);
@@ -250,6 +281,32 @@ public class CustomTextRenderer extends TextRenderer {
         builder.setMaxLines(this.mMaxLines);
         builder.setAlignment(this.mAlignment);
         this.mStaticLayout = builder.build();
+
+        if (cacheable) {
+            this.mFittedLayoutCache.put(this.mLookupKey.copy(), new FittedLayout(this.mStaticLayout, this.mInAmbientMode ? this.mAmbientModeText : null));
+        }
+    }
+
+    /**
+     * Finds the biggest text size, going down from the paint text size by steps of 1px, at which
+     * the first {@link #mMinCharactersShown} characters fit in the available width.
+     */
+    private float fitTextSize(TextPaint paint, int availableWidth) {
+        float baseTextSize = paint.getTextSize();
+        if (paint.measureText(this.mText, 0, this.mText.length()) <= (float)availableWidth) {
+            return baseTextSize;
+        }
+
+        int charactersShown = this.mMinCharactersShown;
+        if (this.mEllipsize != null && this.mEllipsize != TextUtils.TruncateAt.MARQUEE) {
+            ++charactersShown;
+        }
+        final int fittedCharacters = Math.min(charactersShown, this.mText.length());
+
+        return TextSizeFitter.fit(baseTextSize, availableWidth, textSize -> {
+            paint.setTextSize(textSize);
+            return paint.measureText(this.mText, 0, fittedCharacters);
+        });
     }
 
     private void calculateBounds() {
@@ -261,4 +318,99 @@ public class CustomTextRenderer extends TextRenderer {
         this.mWorkingRect.set(this.mBounds.left + leftPadding, this.mBounds.top + topPadding, this.mBounds.right - rightPadding, this.mBounds.bottom - bottomPadding);
         Gravity.apply(this.mGravity, this.mStaticLayout.getWidth(), this.mStaticLayout.getHeight(), this.mWorkingRect, this.mOutputRect, layoutDirection);
     }
+
+    private static final class FittedLayout {
+        final StaticLayout layout;
+        @Nullable
+        final String ambientModeText;
+
+        FittedLayout(StaticLayout layout, @Nullable String ambientModeText) {
+            this.layout = layout;
+            this.ambientModeText = ambientModeText;
+        }
+    }
+
+    /**
+     * Everything the fitted size and the layout depend on. The layout keeps a copy of the paint
+     * so its color and flags are part of the key too.
+     */
+    private static final class FittedLayoutKey {
+        private String text;
+        @Nullable
+        private Typeface typeface;
+        private float textSize;
+        private int color;
+        private int paintFlags;
+        private int availableWidth;
+        private int maxLines;
+        private boolean inAmbientMode;
+        private Layout.Alignment alignment;
+        @Nullable
+        private TextUtils.TruncateAt ellipsize;
+        private int minCharactersShown;
+
+        void set(String text, TextPaint paint, int availableWidth, int maxLines, boolean inAmbientMode, Layout.Alignment alignment, @Nullable TextUtils.TruncateAt ellipsize, int minCharactersShown) {
+            this.text = text;
+            this.typeface = paint.getTypeface();
+            this.textSize = paint.getTextSize();
+            this.color = paint.getColor();
+            this.paintFlags = paint.getFlags();
+            this.availableWidth = availableWidth;
+            this.maxLines = maxLines;
+            this.inAmbientMode = inAmbientMode;
+            this.alignment = alignment;
+            this.ellipsize = ellipsize;
+            this.minCharactersShown = minCharactersShown;
+        }
+
+        FittedLayoutKey copy() {
+            FittedLayoutKey key = new FittedLayoutKey();
+            key.text = text;
+            key.typeface = typeface;
+            key.textSize = textSize;
+            key.color = color;
+            key.paintFlags = paintFlags;
+            key.availableWidth = availableWidth;
+            key.maxLines = maxLines;
+            key.inAmbientMode = inAmbientMode;
+            key.alignment = alignment;
+            key.ellipsize = ellipsize;
+            key.minCharactersShown = minCharactersShown;
+            return key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof FittedLayoutKey)) return false;
+            FittedLayoutKey that = (FittedLayoutKey) o;
+            return Float.compare(that.textSize, textSize) == 0 &&
+                color == that.color &&
+                paintFlags == that.paintFlags &&
+                availableWidth == that.availableWidth &&
+                maxLines == that.maxLines &&
+                inAmbientMode == that.inAmbientMode &&
+                minCharactersShown == that.minCharactersShown &&
+                alignment == that.alignment &&
+                ellipsize == that.ellipsize &&
+                Objects.equals(typeface, that.typeface) &&
+                text.equals(that.text);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = text.hashCode();
+            result = 31 * result + (typeface != null ? typeface.hashCode() : 0);
+            result = 31 * result + Float.floatToIntBits(textSize);
+            result = 31 * result + color;
+            result = 31 * result + paintFlags;
+            result = 31 * result + availableWidth;
+            result = 31 * result + maxLines;
+            result = 31 * result + (inAmbientMode ? 1 : 0);
+            result = 31 * result + alignment.hashCode();
+            result = 31 * result + (ellipsize != null ? ellipsize.hashCode() : 0);
+            result = 31 * result + minCharactersShown;
+            return result;
+        }
+    }
 }
@@ -0,0 +1,57 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package android.support.wearable.complications.rendering;
+
+/**
+ * Finds the text size at which a text fits in a width, as the original renderer did by going down
+ * from the base size by steps of 1px, but with a binary search over the number of steps.
+ * <p>
+ * Text widths must not decrease when the text size grows, which is true for the sizes measured by
+ * {@link android.graphics.Paint#measureText}.
+ */
+final class TextSizeFitter {
+    interface WidthMeasurer {
+        float measureWidth(float textSize);
+    }
+
+    private TextSizeFitter() {}
+
+    /**
+     * @return the biggest {@code baseTextSize - n}, n being a positive integer, at which the
+     * measured width is at most {@code availableWidth}. The smallest positive size is returned if
+     * the text never fits.
+     */
+    static float fit(float baseTextSize, int availableWidth, WidthMeasurer measurer) {
+        // Most texts fit at their base size: a single measurement, like the linear scan
+        int high = Math.max(0, (int)Math.ceil(baseTextSize) - 1);
+        if (high == 0 || measurer.measureWidth(baseTextSize) <= (float)availableWidth) {
+            return baseTextSize;
+        }
+
+        // Binary search the smallest number of 1px steps that makes the text fit
+        int low = 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (measurer.measureWidth(baseTextSize - middle) <= (float)availableWidth) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+
+        return baseTextSize - low;
+    }
+}
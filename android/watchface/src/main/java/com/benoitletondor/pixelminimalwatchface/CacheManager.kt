@@ -0,0 +1,110 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface
+
+import android.content.ComponentCallbacks2
+import java.io.PrintWriter
+
+/**
+ * A cache whose content can be dropped and rebuilt on demand.
+ */
+interface TrimmableCache {
+    fun getName(): String
+    fun getByteCount(): Long
+
+    /**
+     * @param tier either [CacheManager.TIER_INTERACTIVE] to drop what's only used in interactive
+     * mode or [CacheManager.TIER_REBUILDABLE] to drop everything that can be rebuilt
+     */
+    fun trim(tier: Int)
+}
+
+/**
+ * Keeps track of the bitmap and layout caches of an engine, reports their footprint and trims
+ * them by tiers when entering ambient mode or when the system is low on memory.
+ */
+class CacheManager(private val budgetBytes: Long) {
+    private val caches = ArrayList<TrimmableCache>()
+    private val trims = IntArray(TIER_REBUILDABLE + 1)
+
+    fun register(cache: TrimmableCache) {
+        caches.add(cache)
+    }
+
+    fun unregister(cache: TrimmableCache) {
+        caches.remove(cache)
+    }
+
+    fun getByteCount(): Long {
+        var bytes = 0L
+        for(i in caches.indices) {
+            bytes += caches[i].getByteCount()
+        }
+
+        return bytes
+    }
+
+    fun onEnterAmbient() {
+        trim(TIER_INTERACTIVE)
+    }
+
+    fun onTrimMemory(level: Int) {
+        when {
+            level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE ||
+                level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL -> trim(TIER_REBUILDABLE)
+            level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW -> trim(TIER_INTERACTIVE)
+            else -> trimToBudget()
+        }
+    }
+
+    fun onLowMemory() {
+        trim(TIER_REBUILDABLE)
+    }
+
+    /**
+     * Drops tiers, least useful first, until the caches fit in the budget.
+     */
+    fun trimToBudget() {
+        if( getByteCount() > budgetBytes ) {
+            trim(TIER_INTERACTIVE)
+        }
+
+        if( getByteCount() > budgetBytes ) {
+            trim(TIER_REBUILDABLE)
+        }
+    }
+
+    private fun trim(tier: Int) {
+        trims[tier]++
+        for(i in caches.indices) {
+            caches[i].trim(tier)
+        }
+    }
+
+    fun dump(prefix: String, writer: PrintWriter) {
+        writer.print(prefix)
+        writer.println("${getByteCount()}/$budgetBytes bytes, trims: interactive ${trims[TIER_INTERACTIVE]}, rebuildable ${trims[TIER_REBUILDABLE]}")
+        for(cache in caches) {
+            writer.print(prefix)
+            writer.println("  ${cache.getName()}: ${cache.getByteCount()} bytes")
+        }
+    }
+
+    companion object {
+        const val TIER_INTERACTIVE = 1
+        const val TIER_REBUILDABLE = 2
+    }
+}
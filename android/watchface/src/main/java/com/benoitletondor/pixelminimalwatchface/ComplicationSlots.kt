@@ -0,0 +1,56 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface
+
+import android.graphics.Rect
+import android.support.wearable.complications.ComplicationData
+import android.support.wearable.complications.ComplicationText
+import android.support.wearable.complications.rendering.CustomComplicationDrawable
+
+/**
+ * State of a complication slot, shared by the engine and the drawer.
+ */
+class ComplicationSlot(val id: Int, val drawable: CustomComplicationDrawable) {
+    var data: ComplicationData? = null
+    /**
+     * Short text of [data] if it changes with time, null otherwise
+     */
+    var timeDependentText: ComplicationText? = null
+    val bounds = Rect()
+
+    val contentVersion: Long
+        get() = drawable.contentVersion
+}
+
+/**
+ * Fixed size table of the complication slots. Iterate with indexed loops over [size] and [get]
+ * so that per frame loops don't allocate.
+ */
+class ComplicationSlots(private val slots: Array<ComplicationSlot>) {
+    val size = slots.size
+
+    operator fun get(index: Int): ComplicationSlot = slots[index]
+
+    fun findById(complicationId: Int): ComplicationSlot? {
+        for(i in slots.indices) {
+            if( slots[i].id == complicationId ) {
+                return slots[i]
+            }
+        }
+
+        return null
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface
+
+import android.graphics.Canvas
+import android.graphics.Paint
+import java.io.PrintWriter
+import java.util.*
+
+private const val FRAME_BUDGET_NS = 16_000_000L
+// Upper bounds of the histogram buckets, the last bucket holds everything above
+private val BUCKET_LIMITS_US = intArrayOf(50, 100, 250, 500, 1_000, 2_000, 4_000, 8_000, 16_000)
+
+/**
+ * Times the phases of each frame into fixed bucket histograms. Recording doesn't allocate, so
+ * it is always on; results are read through [dump] or the debug overlay.
+ */
+class FrameProfiler(slotCount: Int) {
+    private val phaseStarts = LongArray(PHASE_COUNT)
+    private val phases = Array(PHASE_COUNT) { Histogram() }
+    private val slotStarts = LongArray(slotCount)
+    private val slots = Array(slotCount) { Histogram() }
+    private var framesOverBudget = 0L
+
+    fun beginPhase(phase: Int) {
+        phaseStarts[phase] = System.nanoTime()
+    }
+
+    fun endPhase(phase: Int) {
+        val duration = System.nanoTime() - phaseStarts[phase]
+        phases[phase].record(duration)
+
+        if( phase == PHASE_FRAME && duration > FRAME_BUDGET_NS ) {
+            framesOverBudget++
+        }
+    }
+
+    fun beginSlot(slotIndex: Int) {
+        slotStarts[slotIndex] = System.nanoTime()
+    }
+
+    fun endSlot(slotIndex: Int) {
+        slots[slotIndex].record(System.nanoTime() - slotStarts[slotIndex])
+    }
+
+    /**
+     * Debug only: formats strings on every call.
+     */
+    fun drawOverlay(canvas: Canvas, x: Float, y: Float, paint: Paint) {
+        val frame = phases[PHASE_FRAME]
+        var lineY = y
+        val lineHeight = paint.textSize * 1.2f
+
+        canvas.drawText("frames ${frame.count}, over budget $framesOverBudget", x, lineY, paint)
+        lineY += lineHeight
+        for(phase in 0 until PHASE_COUNT) {
+            canvas.drawText("${PHASE_NAMES[phase]} ${phases[phase].format()}", x, lineY, paint)
+            lineY += lineHeight
+        }
+    }
+
+    fun dump(prefix: String, writer: PrintWriter, slotIds: IntArray) {
+        writer.print(prefix)
+        writer.println("Frames over ${FRAME_BUDGET_NS / 1_000_000}ms budget: $framesOverBudget/${phases[PHASE_FRAME].count}")
+        writer.print(prefix)
+        writer.println("Buckets (us): ${BUCKET_LIMITS_US.joinToString(prefix = "<", separator = ", <")}, more")
+        for(phase in 0 until PHASE_COUNT) {
+            writer.print(prefix)
+            writer.println("${PHASE_NAMES[phase]}: ${phases[phase].format()} ${phases[phase].buckets.contentToString()}")
+        }
+        for(i in slots.indices) {
+            writer.print(prefix)
+            writer.println("complication ${slotIds.getOrNull(i) ?: i}: ${slots[i].format()} ${slots[i].buckets.contentToString()}")
+        }
+    }
+
+    private class Histogram {
+        val buckets = LongArray(BUCKET_LIMITS_US.size + 1)
+        var count = 0L
+        private var totalNs = 0L
+        private var maxNs = 0L
+
+        fun record(durationNs: Long) {
+            val durationUs = durationNs / 1_000
+            var bucket = 0
+            while( bucket < BUCKET_LIMITS_US.size && durationUs >= BUCKET_LIMITS_US[bucket] ) {
+                bucket++
+            }
+
+            buckets[bucket]++
+            count++
+            totalNs += durationNs
+            if( durationNs > maxNs ) {
+                maxNs = durationNs
+            }
+        }
+
+        fun format(): String {
+            val mean = if( count > 0 ) { totalNs / count / 1_000_000f } else { 0f }
+            return String.format(Locale.US, "n=%d mean=%.2fms max=%.2fms", count, mean, maxNs / 1_000_000f)
+        }
+    }
+
+    companion object {
+        const val PHASE_FRAME = 0
+        const val PHASE_SETTINGS = 1
+        const val PHASE_CACHE_BUILD = 2
+        const val PHASE_TIME = 3
+        const val PHASE_COMPLICATIONS = 4
+        const val PHASE_DATE = 5
+        const val PHASE_WEATHER = 6
+        const val PHASE_RING = 7
+        private const val PHASE_COUNT = 8
+
+        private val PHASE_NAMES = arrayOf("frame", "settings", "cache build", "time", "complications", "date", "weather", "ring")
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface
+
+import android.os.Handler
+import android.os.Looper
+import android.os.Message
+import android.os.SystemClock
+import android.util.SparseArray
+import java.lang.ref.WeakReference
+import java.util.*
+import kotlin.math.max
+
+private const val MSG_FRAME_DEADLINE = 0
+private const val HOUR_MS = 60 * 60 * 1000L
+
+/**
+ * Keeps every upcoming redraw deadline (next second for the seconds ring, next change of
+ * each time dependent complication text, next minute) in a priority queue and arms a single
+ * wakeup for the earliest one.
+ *
+ * Deadlines are wall-clock times so frames land right on second/minute boundaries instead of
+ * drifting with the time it takes to draw.
+ *
+ * Deadlines at the same time wake up once, for the source that comes first in this order:
+ * complications by decreasing id, [SOURCE_SECOND], [SOURCE_MINUTE]. A complication text change
+ * isn't part of the render key, so it must win a tie or the frame could be elided.
+ */
+class FrameScheduler(listener: Listener) : Handler(Looper.getMainLooper()) {
+    private val listener = WeakReference(listener)
+    private val deadlines = SparseArray<Deadline>()
+    private val queue = PriorityQueue<Deadline>(8, Comparator { d1, d2 ->
+        if( d1.timeMillis != d2.timeMillis ) {
+            d1.timeMillis.compareTo(d2.timeMillis)
+        } else {
+            // Complication ids are positive, sources are negative: see the class documentation
+            d2.source.compareTo(d1.source)
+        }
+    })
+    private var armedDeadline = Long.MAX_VALUE
+    private var armedSource = 0
+
+    private var wakeups = 0L
+    private val statsStartTimestamp = SystemClock.elapsedRealtime()
+
+    override fun handleMessage(msg: Message) {
+        super.handleMessage(msg)
+
+        armedDeadline = Long.MAX_VALUE
+        wakeups++
+
+        listener.get()?.onFrameDeadline(armedSource)
+    }
+
+    /**
+     * Sets the deadline for the given [source], replacing the previous one. Use
+     * [Long.MAX_VALUE] or [clearDeadline] to remove it.
+     */
+    fun setDeadline(source: Int, timeMillis: Long) {
+        val deadline = deadlines.get(source) ?: Deadline(source).also { deadlines.put(source, it) }
+        if( deadline.isQueued ) {
+            if( deadline.timeMillis == timeMillis ) {
+                return
+            }
+
+            queue.remove(deadline)
+            deadline.isQueued = false
+        }
+
+        if( timeMillis == Long.MAX_VALUE ) {
+            return
+        }
+
+        deadline.timeMillis = timeMillis
+        deadline.isQueued = true
+        queue.add(deadline)
+    }
+
+    fun clearDeadline(source: Int) {
+        setDeadline(source, Long.MAX_VALUE)
+    }
+
+    /**
+     * Drops the deadlines already served by the frame drawn at [frameTimeMillis] and arms the
+     * wakeup for the earliest remaining one.
+     */
+    fun arm(frameTimeMillis: Long) {
+        while( queue.isNotEmpty() && queue.peek()!!.timeMillis <= frameTimeMillis ) {
+            queue.poll()!!.isQueued = false
+        }
+
+        val nextDeadline = queue.peek()
+        val next = nextDeadline?.timeMillis ?: Long.MAX_VALUE
+        if( next == armedDeadline ) {
+            return
+        }
+
+        removeMessages(MSG_FRAME_DEADLINE)
+        armedDeadline = next
+        armedSource = nextDeadline?.source ?: 0
+
+        if( next != Long.MAX_VALUE ) {
+            // Measured now rather than from the frame time, which is already late by the time
+            // it took to draw the frame
+            val delay = max(0L, next - System.currentTimeMillis())
+            sendEmptyMessageAtTime(MSG_FRAME_DEADLINE, SystemClock.uptimeMillis() + delay)
+        }
+    }
+
+    fun cancel() {
+        removeMessages(MSG_FRAME_DEADLINE)
+        armedDeadline = Long.MAX_VALUE
+
+        while( queue.isNotEmpty() ) {
+            queue.poll()!!.isQueued = false
+        }
+    }
+
+    fun getWakeupsPerHour(): Float {
+        val elapsed = SystemClock.elapsedRealtime() - statsStartTimestamp
+        if( elapsed <= 0 ) {
+            return 0f
+        }
+
+        return wakeups * HOUR_MS / elapsed.toFloat()
+    }
+
+    fun getWakeups(): Long = wakeups
+
+    interface Listener {
+        /**
+         * @param source the source of the deadline that triggered the wakeup, either
+         * [SOURCE_SECOND], [SOURCE_MINUTE] or a complication id
+         */
+        fun onFrameDeadline(source: Int)
+    }
+
+    private class Deadline(val source: Int) {
+        var timeMillis = Long.MAX_VALUE
+        var isQueued = false
+    }
+
+    companion object {
+        const val SOURCE_SECOND = -1
+        const val SOURCE_MINUTE = -2
+    }
+}
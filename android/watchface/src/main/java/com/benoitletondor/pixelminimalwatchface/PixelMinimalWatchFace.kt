@@ -20,42 +20,46 @@ import android.app.NotificationManager
 import android.app.PendingIntent
 import android.content.*
 import android.content.Intent.FLAG_ACTIVITY_NEW_TASK
+import android.content.res.Configuration
 import android.graphics.Canvas
 import android.graphics.Rect
 import android.graphics.drawable.Drawable
 import android.os.Build
 import android.os.Bundle
-import android.os.Handler
-import android.os.Message
 import android.support.wearable.complications.ComplicationData
-import android.support.wearable.complications.ComplicationText
-import android.support.wearable.complications.rendering.ComplicationDrawable
+import android.support.wearable.complications.rendering.ComplicationDataDiff
 import android.support.wearable.complications.rendering.CustomComplicationDrawable
 import android.support.wearable.watchface.CanvasWatchFaceService
 import android.support.wearable.watchface.WatchFaceService
 import android.support.wearable.watchface.WatchFaceStyle
-import android.util.SparseArray
+import android.text.TextUtils
 import android.view.SurfaceHolder
 import android.view.WindowInsets
 import android.widget.Toast
 import androidx.core.app.NotificationCompat
 import androidx.core.app.NotificationManagerCompat
+import com.benoitletondor.pixelminimalwatchface.drawer.SharedResources
 import com.benoitletondor.pixelminimalwatchface.helper.FullBrightnessActivity
 import com.benoitletondor.pixelminimalwatchface.helper.isPermissionGranted
+import com.benoitletondor.pixelminimalwatchface.helper.isSameIconAs
 import com.benoitletondor.pixelminimalwatchface.helper.openActivity
 import com.benoitletondor.pixelminimalwatchface.model.ComplicationColors
 import com.benoitletondor.pixelminimalwatchface.model.Storage
+import com.benoitletondor.pixelminimalwatchface.model.WatchFaceSettings
 import com.benoitletondor.pixelminimalwatchface.rating.FeedbackActivity
 import com.benoitletondor.pixelminimalwatchface.settings.ComplicationLocation
 import com.google.android.gms.wearable.*
-import java.lang.ref.WeakReference
+import java.io.FileDescriptor
+import java.io.PrintWriter
 import java.util.*
 import kotlin.math.max
 
 private const val MISC_NOTIFICATION_CHANNEL_ID = "rating"
 private const val DATA_KEY_PREMIUM = "premium"
 private const val THREE_DAYS_MS: Long = 1000 * 60 * 60 * 24 * 3
-private const val MINIMUM_COMPLICATION_UPDATE_INTERVAL_MS = 1000L
+private const val SECOND_MS = 1000L
+private const val MINUTE_MS = 60 * SECOND_MS
+private const val CACHE_BUDGET_BYTES = 3L * 1024 * 1024
 
 const val WEAR_OS_APP_PACKAGE = "com.google.android.wearable.app"
 const val WEATHER_PROVIDER_SERVICE = "com.google.android.clockwork.home.weather.WeatherProviderService"
@@ -64,8 +68,16 @@ const val WEATHER_ACTIVITY_NAME = "com.google.android.clockwork.home.weather.Wea
 class PixelMinimalWatchFace : CanvasWatchFaceService() {
 
     override fun onCreateEngine(): Engine {
-        val storage = Injection.storage(this)
+        val startupTrace = StartupTrace()
+        startupTrace.mark("onCreateEngine")
 
+        // Starts loading the storage in background while the engine is being created, it's
+        // first read in Engine.onCreate
+        val storage = startupTrace.trace("storage init") { Injection.storage(this) }
+        return Engine(this, storage, startupTrace)
+    }
+
+    private fun checkAppVersion(storage: Storage) {
         val latestKnownVersion = storage.getAppVersion()
         if( BuildConfig.VERSION_CODE > latestKnownVersion ) {
             if( latestKnownVersion > 0 ) {
@@ -74,8 +86,6 @@ class PixelMinimalWatchFace : CanvasWatchFaceService() {
 
             storage.setAppVersion(BuildConfig.VERSION_CODE)
         }
-
-        return Engine(this, storage)
     }
 
     @Suppress("SameParameterValue", "UNUSED_PARAMETER")
@@ -88,78 +98,66 @@ class PixelMinimalWatchFace : CanvasWatchFaceService() {
         }
     }
 
-    private class ComplicationTimeDependentUpdateHandler(private val engine: WeakReference<Engine>,
-                                                         private var hasUpdateScheduled: Boolean = false) : Handler() {
-        override fun handleMessage(msg: Message) {
-            super.handleMessage(msg)
-
-            val engine = engine.get() ?: return
-
-            hasUpdateScheduled = false
-
-            if( !engine.isAmbientMode() && engine.isVisible ) {
-                engine.invalidate()
-            }
-        }
-
-        fun cancelUpdate() {
-            if( hasUpdateScheduled ) {
-                hasUpdateScheduled = false
-                removeMessages(MSG_UPDATE_TIME)
-            }
-        }
-
-        fun scheduleUpdate(delay: Long) {
-            if( hasUpdateScheduled ) {
-                cancelUpdate()
-            }
-
-            hasUpdateScheduled = true
-            sendEmptyMessageDelayed(MSG_UPDATE_TIME, delay)
-        }
-
-        fun hasUpdateScheduled(): Boolean = hasUpdateScheduled
-
-        companion object {
-            private const val MSG_UPDATE_TIME = 0
-        }
-    }
-
     inner class Engine(private val service: WatchFaceService,
-                       private val storage: Storage
-    ) : CanvasWatchFaceService.Engine(), DataClient.OnDataChangedListener, Drawable.Callback {
+                       private val storage: Storage,
+                       private val startupTrace: StartupTrace
+    ) : CanvasWatchFaceService.Engine(), DataClient.OnDataChangedListener, Drawable.Callback, FrameScheduler.Listener, Storage.SettingsListener {
         private lateinit var calendar: Calendar
         private var registeredTimeZoneReceiver = false
 
         private val watchFaceDrawer = Injection.watchFaceDrawer()
 
         private lateinit var complicationsColors: ComplicationColors
-        private lateinit var complicationDataSparseArray: SparseArray<ComplicationData>
-        private lateinit var complicationDrawableSparseArray: SparseArray<ComplicationDrawable>
+        private lateinit var complicationSlots: ComplicationSlots
 
         private var muteMode = false
         private var ambient = false
         private var lowBitAmbient = false
         private var burnInProtection = false
 
-        private val timeDependentUpdateHandler = ComplicationTimeDependentUpdateHandler(WeakReference(this))
-        private val timeDependentTexts = SparseArray<ComplicationText>()
+        private val frameScheduler = FrameScheduler(this)
+        private val cacheManager = CacheManager(CACHE_BUDGET_BYTES)
+        private val componentCallbacks = object : ComponentCallbacks2 {
+            override fun onTrimMemory(level: Int) {
+                cacheManager.onTrimMemory(level)
+            }
 
+            override fun onLowMemory() {
+                cacheManager.onLowMemory()
+            }
+
+            override fun onConfigurationChanged(newConfig: Configuration) {
+                // No-op
+            }
+        }
+
+        private lateinit var settings: WatchFaceSettings
         private var shouldShowWeather = false
         private var weatherComplicationData: ComplicationData? = null
 
         private var lastTapEventTimestamp: Long = 0
+        private var lastDrawTimestamp: Long = 0
+
+        private val renderKey = RenderKey(COMPLICATION_IDS.size)
+        private val lastDrawnRenderKey = RenderKey(COMPLICATION_IDS.size)
+        private val frameRequestStats = FrameRequestStats()
+        private val frameProfiler = FrameProfiler(COMPLICATION_IDS.size)
+        private var isFramePending = false
+        private var forcedRedrawVersion = 0L
+        private var weatherVersion = 0L
 
 
         private val timeZoneReceiver = object : BroadcastReceiver() {
             override fun onReceive(context: Context, intent: Intent) {
                 calendar.timeZone = TimeZone.getDefault()
-                invalidate()
+                watchFaceDrawer.onTimeZoneChanged()
+                forceFrame(FrameRequestReason.TIME_ZONE)
             }
         }
 
         override fun onCreate(holder: SurfaceHolder) {
             super.onCreate(holder)
+            startupTrace.mark("Engine.onCreate")
 
             setWatchFaceStyle(
                 WatchFaceStyle.Builder(service)
@@ -169,8 +167,22 @@ class PixelMinimalWatchFace : CanvasWatchFaceService() {
 
             calendar = Calendar.getInstance()
 
-            watchFaceDrawer.onCreate(service, storage)
-            initializeComplications()
+            watchFaceDrawer.setFrameProfiler(frameProfiler)
+            startupTrace.trace("drawer onCreate") {
+                watchFaceDrawer.onCreate(service, storage, startupTrace) {
+                    forceFrame(FrameRequestReason.RESOURCES)
+                }
+            }
+            // The drawer loads its resources first, giving the storage time to load in background
+            startupTrace.trace("storage load") {
+                checkAppVersion(storage)
+                settings = storage.getSettings()
+            }
+            startupTrace.trace("initialize complications") { initializeComplications() }
+            watchFaceDrawer.registerCaches(cacheManager)
+            service.registerComponentCallbacks(componentCallbacks)
+            updateWeatherSubscription()
+            storage.addSettingsListener(this)
 
             Wearable.getDataClient(service).addListener(this)
         }
@@ -178,31 +190,55 @@ class PixelMinimalWatchFace : CanvasWatchFaceService() {
         private fun initializeComplications() {
             complicationsColors = storage.getComplicationColors()
 
-            val leftComplicationDrawable = CustomComplicationDrawable(service, false)
-            val middleComplicationDrawable = CustomComplicationDrawable(service, false)
-            val rightComplicationDrawable = CustomComplicationDrawable(service, false)
-            val bottomComplicationDrawable = CustomComplicationDrawable(service, true)
+            complicationSlots = ComplicationSlots(arrayOf(
+                ComplicationSlot(LEFT_COMPLICATION_ID, CustomComplicationDrawable(service, false)),
+                ComplicationSlot(MIDDLE_COMPLICATION_ID, CustomComplicationDrawable(service, false)),
+                ComplicationSlot(RIGHT_COMPLICATION_ID, CustomComplicationDrawable(service, false)),
+                ComplicationSlot(BOTTOM_COMPLICATION_ID, CustomComplicationDrawable(service, true))
+            ))
+
+            for(i in 0 until complicationSlots.size) {
+                val slot = complicationSlots[i]
+                val complicationDrawable = slot.drawable
+                complicationDrawable.callback = this
+                complicationDrawable.setRenderCacheEnabled(true)
+
+                cacheManager.register(object : TrimmableCache {
+                    override fun getName() = "complication ${slot.id}"
+                    override fun getByteCount() = complicationDrawable.renderCacheBytes
+
+                    // Complications are also drawn in ambient
+                    override fun trim(tier: Int) {
+                        if( tier >= CacheManager.TIER_REBUILDABLE ) {
+                            complicationDrawable.trimCaches()
+                        }
+                    }
+                })
+            }
 
-            complicationDrawableSparseArray = SparseArray(COMPLICATION_IDS.size)
-            complicationDataSparseArray = SparseArray(COMPLICATION_IDS.size)
+            setActiveComplications(*COMPLICATION_IDS.plus(WEATHER_COMPLICATION_ID))
 
-            complicationDrawableSparseArray.put(LEFT_COMPLICATION_ID, leftComplicationDrawable)
-            complicationDrawableSparseArray.put(MIDDLE_COMPLICATION_ID, middleComplicationDrawable)
-            complicationDrawableSparseArray.put(RIGHT_COMPLICATION_ID, rightComplicationDrawable)
-            complicationDrawableSparseArray.put(BOTTOM_COMPLICATION_ID, bottomComplicationDrawable)
+            watchFaceDrawer.setComplicationSlots(complicationSlots)
+            watchFaceDrawer.onComplicationColorsUpdate(complicationsColors)
+        }
 
-            leftComplicationDrawable.callback = this
-            middleComplicationDrawable.callback = this
-            rightComplicationDrawable.callback = this
-            bottomComplicationDrawable.callback = this
+        override fun onSettingsChanged(oldSettings: WatchFaceSettings, newSettings: WatchFaceSettings) {
+            settings = newSettings
+            updateWeatherSubscription()
+            requestFrame(FrameRequestReason.SETTINGS)
+        }
 
-            setActiveComplications(*COMPLICATION_IDS.plus(WEATHER_COMPLICATION_ID))
+        private fun updateWeatherSubscription() {
+            if( settings.showWeather != shouldShowWeather && settings.isUserPremium ) {
+                shouldShowWeather = settings.showWeather
 
-            watchFaceDrawer.setComplicationDrawable(LEFT_COMPLICATION_ID, leftComplicationDrawable)
-            watchFaceDrawer.setComplicationDrawable(MIDDLE_COMPLICATION_ID, middleComplicationDrawable)
-            watchFaceDrawer.setComplicationDrawable(RIGHT_COMPLICATION_ID, rightComplicationDrawable)
-            watchFaceDrawer.setComplicationDrawable(BOTTOM_COMPLICATION_ID, bottomComplicationDrawable)
-            watchFaceDrawer.onComplicationColorsUpdate(complicationsColors, complicationDataSparseArray)
+                if( shouldShowWeather ) {
+                    subscribeToWeatherComplicationData()
+                } else {
+                    unsubscribeToWeatherComplicationData()
+                    weatherComplicationData = null
+                }
+            }
         }
 
         private fun subscribeToWeatherComplicationData() {
@@ -223,8 +259,14 @@ class PixelMinimalWatchFace : CanvasWatchFaceService() {
 
         override fun onDestroy() {
             unregisterReceiver()
+            storage.removeSettingsListener(this)
+            watchFaceDrawer.onDestroy()
             Wearable.getDataClient(service).removeListener(this)
-            timeDependentUpdateHandler.cancelUpdate()
+            frameScheduler.cancel()
+            service.unregisterComponentCallbacks(componentCallbacks)
+            for(i in 0 until complicationSlots.size) {
+                complicationSlots[i].drawable.releaseRenderCache()
+            }
 
             super.onDestroy()
         }
@@ -239,15 +281,13 @@ class PixelMinimalWatchFace : CanvasWatchFaceService() {
                 WatchFaceService.PROPERTY_BURN_IN_PROTECTION, false
             )
 
-            COMPLICATION_IDS.forEach {
-                complicationDrawableSparseArray[it].setLowBitAmbient(lowBitAmbient)
+            for(i in 0 until complicationSlots.size) {
+                val complicationDrawable = complicationSlots[i].drawable
+                complicationDrawable.setLowBitAmbient(lowBitAmbient)
+                complicationDrawable.setBurnInProtection(burnInProtection)
             }
 
-            COMPLICATION_IDS.forEach {
-                complicationDrawableSparseArray[it].setBurnInProtection(burnInProtection)
-            }
-
-            invalidate()
+            forceFrame(FrameRequestReason.PROPERTIES)
         }
 
         override fun onApplyWindowInsets(insets: WindowInsets) {
@@ -265,18 +305,25 @@ class PixelMinimalWatchFace : CanvasWatchFaceService() {
                 sendRatingNotification()
             }
 
-            invalidate()
+            requestFrame(FrameRequestReason.TIME_TICK)
         }
 
         override fun onAmbientModeChanged(inAmbientMode: Boolean) {
             super.onAmbientModeChanged(inAmbientMode)
             ambient = inAmbientMode
+            // An invalidation from the previous mode may never be drawn
+            isFramePending = false
 
-            COMPLICATION_IDS.forEach {
-                complicationDrawableSparseArray[it].setInAmbientMode(ambient)
+            for(i in 0 until complicationSlots.size) {
+                complicationSlots[i].drawable.setInAmbientMode(ambient)
             }
 
-            invalidate()
+            if( ambient ) {
+                frameScheduler.cancel()
+                cacheManager.onEnterAmbient()
+            }
+
+            requestFrame(FrameRequestReason.AMBIENT_MODE)
         }
 
         override fun onInterruptionFilterChanged(interruptionFilter: Int) {
@@ -286,12 +333,15 @@ class PixelMinimalWatchFace : CanvasWatchFaceService() {
             if (muteMode != inMuteMode) {
                 muteMode = inMuteMode
 
-                invalidate()
+                requestFrame(FrameRequestReason.INTERRUPTION_FILTER)
             }
         }
 
         override fun onSurfaceChanged(holder: SurfaceHolder, format: Int, width: Int, height: Int) {
             super.onSurfaceChanged(holder, format, width, height)
+            if( !startupTrace.isFirstFrameDrawn() ) {
+                startupTrace.mark("onSurfaceChanged")
+            }
 
             watchFaceDrawer.onSurfaceChanged(width, height)
         }
@@ -300,46 +350,66 @@ class PixelMinimalWatchFace : CanvasWatchFaceService() {
             super.onComplicationDataUpdate(watchFaceComplicationId, data)
 
             if( watchFaceComplicationId == WEATHER_COMPLICATION_ID ) {
-                weatherComplicationData = if( data.type == ComplicationData.TYPE_SHORT_TEXT ) {
+                val newWeatherComplicationData = if( data.type == ComplicationData.TYPE_SHORT_TEXT ) {
                     data
                 } else {
                     null
                 }
 
-                invalidate()
+                if( !isSameWeather(weatherComplicationData, newWeatherComplicationData) ) {
+                    weatherVersion++
+                    watchFaceDrawer.invalidateStaticLayer()
+                }
+
+                weatherComplicationData = newWeatherComplicationData
+                requestFrame(FrameRequestReason.WEATHER_DATA)
                 return
             }
 
-            // Updates correct ComplicationDrawable with updated data.
-            val complicationDrawable = complicationDrawableSparseArray.get(watchFaceComplicationId)
-            complicationDrawable.setComplicationData(data)
+            val slot = complicationSlots.findById(watchFaceComplicationId) ?: return
 
-            complicationDataSparseArray.put(watchFaceComplicationId, data)
+            // Updates correct ComplicationDrawable with updated data.
+            val diff = slot.drawable.setComplicationData(data)
+            slot.data = data
 
-            watchFaceDrawer.onComplicationDataUpdate(watchFaceComplicationId, complicationDrawable, data, complicationsColors)
+            when( diff ) {
+                // Styles only depend on the type and on which texts and icons are present
+                ComplicationDataDiff.FULL -> watchFaceDrawer.onComplicationDataUpdate(slot, complicationsColors)
+                ComplicationDataDiff.TEXT_ONLY -> watchFaceDrawer.invalidateStaticLayer()
+            }
 
             // Update time dependent complication
             val nextShortTextChangeTime = data.shortText?.getNextChangeTime(System.currentTimeMillis())
             if( nextShortTextChangeTime != null && nextShortTextChangeTime < Long.MAX_VALUE ) {
-                timeDependentTexts.put(watchFaceComplicationId, data.shortText)
+                slot.timeDependentText = data.shortText
             } else {
-                timeDependentTexts.remove(watchFaceComplicationId)
+                slot.timeDependentText = null
+                frameScheduler.clearDeadline(watchFaceComplicationId)
             }
 
-            timeDependentUpdateHandler.cancelUpdate()
+            if( !ambient || settings.showComplicationsInAmbientMode ) {
+                requestFrame(FrameRequestReason.COMPLICATION_DATA)
+            }
+        }
+
+        private fun isSameWeather(weatherData: ComplicationData?, otherWeatherData: ComplicationData?): Boolean {
+            if( weatherData == null || otherWeatherData == null ) {
+                return weatherData == otherWeatherData
+            }
 
-            if( !ambient || storage.shouldShowComplicationsInAmbientMode() ) {
-                invalidate()
+            val now = System.currentTimeMillis()
+            if( !TextUtils.equals(weatherData.shortText?.getText(service, now), otherWeatherData.shortText?.getText(service, now)) ) {
+                return false
             }
+
+            return isSameIconAs(weatherData.icon, otherWeatherData.icon)
         }
 
         override fun onTapCommand(tapType: Int, x: Int, y: Int, eventTime: Long) {
             when (tapType) {
                 WatchFaceService.TAP_TYPE_TAP -> {
-                    COMPLICATION_IDS.forEach { complicationId ->
-                        val complicationDrawable: ComplicationDrawable = complicationDrawableSparseArray.get(complicationId)
-
-                        if ( complicationDrawable.onTap(x, y) ) {
+                    for(i in 0 until complicationSlots.size) {
+                        if ( complicationSlots[i].drawable.onTap(x, y) ) {
                             lastTapEventTimestamp = 0
                             return
                         }
@@ -366,23 +436,15 @@ class PixelMinimalWatchFace : CanvasWatchFaceService() {
         }
 
         override fun onDraw(canvas: Canvas, bounds: Rect) {
-            // Update weather subscription if needed
-            if( storage.shouldShowWeather() != shouldShowWeather && storage.isUserPremium() ) {
-                shouldShowWeather = storage.shouldShowWeather()
-
-                if( shouldShowWeather ) {
-                    subscribeToWeatherComplicationData()
-                } else {
-                    unsubscribeToWeatherComplicationData()
-                    weatherComplicationData = null
-                }
-            }
-
+            frameProfiler.beginPhase(FrameProfiler.PHASE_FRAME)
             calendar.timeInMillis = System.currentTimeMillis()
+            invalidateStaticLayerIfTimeDependentTextsChanged(calendar.timeInMillis)
+            computeRenderKey(lastDrawnRenderKey, calendar.timeInMillis)
+            isFramePending = false
 
             watchFaceDrawer.draw(
                 canvas,
-                calendar.time,
+                calendar.timeInMillis,
                 muteMode,
                 ambient,
                 lowBitAmbient,
@@ -390,52 +452,187 @@ class PixelMinimalWatchFace : CanvasWatchFaceService() {
                 if( shouldShowWeather ) { weatherComplicationData } else { null }
             )
 
-            if( !ambient && isVisible && !timeDependentUpdateHandler.hasUpdateScheduled() ) {
-                val nextUpdateDelay = getNextComplicationUpdateDelay()
-                if( nextUpdateDelay != null ) {
-                    timeDependentUpdateHandler.scheduleUpdate(nextUpdateDelay)
+            scheduleNextFrame(calendar.timeInMillis)
+            frameProfiler.endPhase(FrameProfiler.PHASE_FRAME)
+
+            if( !startupTrace.isFirstFrameDrawn() ) {
+                startupTrace.onFirstFrameDrawn()
+            }
+        }
+
+        private fun invalidateStaticLayerIfTimeDependentTextsChanged(currentTimeMillis: Long) {
+            val lastDrawTimestamp = lastDrawTimestamp
+            this.lastDrawTimestamp = currentTimeMillis
+
+            for(i in 0 until complicationSlots.size) {
+                val timeDependentText = complicationSlots[i].timeDependentText ?: continue
+                if( timeDependentText.getNextChangeTime(lastDrawTimestamp) <= currentTimeMillis ) {
+                    watchFaceDrawer.invalidateStaticLayer()
+                    return
                 }
             }
         }
 
-        @Suppress("SameParameterValue")
-        private fun getNextComplicationUpdateDelay(): Long? {
-            if( storage.shouldShowSecondsRing() ) {
-                return 1000
+        private fun scheduleNextFrame(currentTimeMillis: Long) {
+            if( ambient || !isVisible ) {
+                frameScheduler.cancel()
+                return
             }
 
-            var minValue = Long.MAX_VALUE
+            frameScheduler.setDeadline(
+                FrameScheduler.SOURCE_SECOND,
+                if( settings.showSecondsRing ) { nextBoundary(currentTimeMillis, SECOND_MS) } else { Long.MAX_VALUE }
+            )
 
-            COMPLICATION_IDS.forEach { complicationId ->
-                val timeDependentText = timeDependentTexts.get(complicationId)
-                if( timeDependentText != null ) {
-                    val nextTime = timeDependentText.getNextChangeTime(calendar.timeInMillis)
-                    if( nextTime < Long.MAX_VALUE ) {
-                        val updateDelay = max(MINIMUM_COMPLICATION_UPDATE_INTERVAL_MS, calendar.timeInMillis - nextTime)
-                        if( updateDelay < minValue ) {
-                            minValue = updateDelay
-                        }
+            // Time dependent texts are refreshed at most once per second, on the second boundary
+            val minimumComplicationUpdateTime = nextBoundary(currentTimeMillis, SECOND_MS)
+            for(i in 0 until complicationSlots.size) {
+                val slot = complicationSlots[i]
+                val timeDependentText = slot.timeDependentText ?: continue
+                val nextChangeTime = timeDependentText.getNextChangeTime(currentTimeMillis)
+                frameScheduler.setDeadline(
+                    slot.id,
+                    if( nextChangeTime < Long.MAX_VALUE ) { max(nextChangeTime, minimumComplicationUpdateTime) } else { Long.MAX_VALUE }
+                )
+            }
+
+            frameScheduler.setDeadline(FrameScheduler.SOURCE_MINUTE, nextBoundary(currentTimeMillis, MINUTE_MS))
+            frameScheduler.arm(currentTimeMillis)
+        }
+
+        private fun nextBoundary(currentTimeMillis: Long, interval: Long): Long {
+            return (currentTimeMillis / interval + 1) * interval
+        }
+
+        override fun onFrameDeadline(source: Int) {
+            if( !ambient && isVisible ) {
+                if( source == FrameScheduler.SOURCE_SECOND || source == FrameScheduler.SOURCE_MINUTE ) {
+                    // Only a drawn frame schedules the next one: keep the schedule going without it
+                    if( !requestFrame(FrameRequestReason.SCHEDULER) ) {
+                        scheduleNextFrame(System.currentTimeMillis())
                     }
+                } else {
+                    // A time dependent text changed, which isn't part of the render key
+                    forceFrame(FrameRequestReason.SCHEDULER)
                 }
             }
+        }
+
+        /**
+         * Invalidates the watch face unless the frame would be identical to the last drawn one
+         *
+         * @return true if a frame has been requested, false if it has been elided
+         */
+        private fun requestFrame(reason: FrameRequestReason): Boolean {
+            if( isFramePending ) {
+                frameRequestStats.onElided(reason)
+                return false
+            }
+
+            computeRenderKey(renderKey, System.currentTimeMillis())
+            if( renderKey.isSameAs(lastDrawnRenderKey) ) {
+                frameRequestStats.onElided(reason)
+                return false
+            }
+
+            frameRequestStats.onDrawn(reason)
+            isFramePending = true
+            invalidate()
+            return true
+        }
+
+        /**
+         * Invalidates the watch face for changes that are not part of the render key
+         */
+        private fun forceFrame(reason: FrameRequestReason) {
+            forcedRedrawVersion++
+            frameRequestStats.onDrawn(reason)
+            isFramePending = true
+            invalidate()
+        }
+
+        private fun computeRenderKey(key: RenderKey, currentTimeMillis: Long) {
+            val timeZoneOffset = calendar.timeZone.getOffset(currentTimeMillis)
+            key.localMinute = Math.floorDiv(currentTimeMillis + timeZoneOffset, MINUTE_MS)
+            key.ringSecond = if( settings.showSecondsRing && !ambient ) {
+                Math.floorMod(Math.floorDiv(currentTimeMillis, SECOND_MS), 60L).toInt()
+            } else {
+                -1
+            }
 
-            if( minValue == Long.MAX_VALUE ) {
-                return null
+            var flags = settings.timeSize shl RenderKey.TIME_SIZE_SHIFT
+            if( ambient ) { flags = flags or RenderKey.FLAG_AMBIENT }
+            if( lowBitAmbient ) { flags = flags or RenderKey.FLAG_LOW_BIT_AMBIENT }
+            if( burnInProtection ) { flags = flags or RenderKey.FLAG_BURN_IN_PROTECTION }
+            if( muteMode ) { flags = flags or RenderKey.FLAG_MUTE_MODE }
+            if( settings.isUserPremium ) { flags = flags or RenderKey.FLAG_PREMIUM }
+            if( settings.use24hTimeFormat ) { flags = flags or RenderKey.FLAG_24H_FORMAT }
+            if( settings.showWearOSLogo ) { flags = flags or RenderKey.FLAG_WEAR_OS_LOGO }
+            if( settings.showComplicationsInAmbientMode ) { flags = flags or RenderKey.FLAG_COMPLICATIONS_AMBIENT }
+            if( ambient && settings.showFilledTimeInAmbientMode ) { flags = flags or RenderKey.FLAG_FILLED_TIME_AMBIENT }
+            if( settings.showSecondsRing ) { flags = flags or RenderKey.FLAG_SECONDS_RING }
+            if( shouldShowWeather ) { flags = flags or RenderKey.FLAG_WEATHER }
+            if( settings.showDebugOverlay ) { flags = flags or RenderKey.FLAG_DEBUG_OVERLAY }
+            key.flags = flags
+
+            key.colors = complicationsColors.hashCode()
+            key.weatherVersion = weatherVersion
+            key.forcedVersion = forcedRedrawVersion
+            for(i in 0 until complicationSlots.size) {
+                key.complicationVersions[i] = complicationSlots[i].contentVersion
             }
+        }
 
-            return minValue
+        override fun dump(prefix: String, fd: FileDescriptor, writer: PrintWriter, args: Array<out String>?) {
+            super.dump(prefix, fd, writer, args)
+
+            writer.print(prefix)
+            writer.println("Frame scheduler wakeups: ${frameScheduler.getWakeups()} (${frameScheduler.getWakeupsPerHour()}/h)")
+            writer.print(prefix)
+            writer.println("Frame requests:")
+            frameRequestStats.dump("$prefix  ", writer)
+            writer.print(prefix)
+            writer.println("Frame phases:")
+            frameProfiler.dump("$prefix  ", writer, COMPLICATION_IDS)
+            writer.print(prefix)
+            writer.println("Startup trace:")
+            startupTrace.dump("$prefix  ", writer)
+            writer.print(prefix)
+            writer.println("Shared resources:")
+            SharedResources.dump("$prefix  ", writer)
+            writer.print(prefix)
+            writer.println("Caches:")
+            cacheManager.dump("$prefix  ", writer)
+            watchFaceDrawer.dump(prefix, writer)
+            writer.print(prefix)
+            writer.println("Complication data updates:")
+            for(i in 0 until complicationSlots.size) {
+                val drawable = complicationSlots[i].drawable
+                writer.print(prefix)
+                writer.println("  ${complicationSlots[i].id}: no-op ${drawable.noOpUpdates}, text only ${drawable.textOnlyUpdates}, full ${drawable.fullUpdates}")
+            }
+            writer.print(prefix)
+            writer.println("Complication render cache: ${CustomComplicationDrawable.getTotalRenderCacheBytes()}/${CustomComplicationDrawable.RENDER_CACHE_MAX_BYTES} bytes")
+            for(i in 0 until complicationSlots.size) {
+                val drawable = complicationSlots[i].drawable
+                writer.print(prefix)
+                writer.println("  ${complicationSlots[i].id}: ${drawable.renderCacheBytes} bytes, hits ${drawable.renderCacheHits}, misses ${drawable.renderCacheMisses}, rejected ${drawable.renderCacheRejections}")
+            }
         }
 
         fun isAmbientMode(): Boolean = ambient
 
         override fun onVisibilityChanged(visible: Boolean) {
             super.onVisibilityChanged(visible)
+            // An invalidation while the surface was going away may never be drawn
+            isFramePending = false
 
             if (visible) {
                 registerReceiver()
 
                 /* Update time zone in case it changed while we weren't visible. */
                 calendar.timeZone = TimeZone.getDefault()
+                watchFaceDrawer.onTimeZoneChanged()
 
                 val newComplicationColors = storage.getComplicationColors()
                 if( newComplicationColors != complicationsColors ) {
@@ -443,9 +640,11 @@ class PixelMinimalWatchFace : CanvasWatchFaceService() {
                     setComplicationsActiveAndAmbientColors(complicationsColors)
                 }
 
-                invalidate()
+                watchFaceDrawer.invalidateStaticLayer()
+                forceFrame(FrameRequestReason.VISIBILITY)
             } else {
                 unregisterReceiver()
+                frameScheduler.cancel()
             }
         }
 
@@ -467,7 +666,7 @@ class PixelMinimalWatchFace : CanvasWatchFaceService() {
         }
 
         private fun setComplicationsActiveAndAmbientColors(complicationColors: ComplicationColors) {
-            watchFaceDrawer.onComplicationColorsUpdate(complicationColors, complicationDataSparseArray)
+            watchFaceDrawer.onComplicationColorsUpdate(complicationColors)
         }
 
         override fun onDataChanged(dataEvents: DataEventBuffer) {
@@ -479,8 +678,6 @@ class PixelMinimalWatchFace : CanvasWatchFaceService() {
                     if( isPremium ) {
                         Toast.makeText(service, R.string.premium_confirmation, Toast.LENGTH_LONG).show()
                     }
-
-                    invalidate()
                 }
             }
         }
@@ -490,8 +687,10 @@ class PixelMinimalWatchFace : CanvasWatchFaceService() {
         }
 
         override fun invalidateDrawable(who: Drawable) {
-            if( !ambient || storage.shouldShowComplicationsInAmbientMode() ) {
-                invalidate()
+            watchFaceDrawer.invalidateStaticLayer()
+
+            if( !ambient || settings.showComplicationsInAmbientMode ) {
+                requestFrame(FrameRequestReason.DRAWABLE)
             }
         }
 
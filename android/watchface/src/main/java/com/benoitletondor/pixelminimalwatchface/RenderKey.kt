@@ -0,0 +1,113 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface
+
+import java.io.PrintWriter
+
+/**
+ * Cheap summary of everything a frame depends on. Two frames with the same key are pixel
+ * identical, so an invalidation that wouldn't change the key can be dropped.
+ */
+class RenderKey(numberOfComplications: Int) {
+    var localMinute = Long.MIN_VALUE
+    var ringSecond = -1
+    var flags = 0
+    var colors = 0
+    var weatherVersion = 0L
+    var forcedVersion = 0L
+    val complicationVersions = LongArray(numberOfComplications)
+
+    fun copyFrom(other: RenderKey) {
+        localMinute = other.localMinute
+        ringSecond = other.ringSecond
+        flags = other.flags
+        colors = other.colors
+        weatherVersion = other.weatherVersion
+        forcedVersion = other.forcedVersion
+        System.arraycopy(other.complicationVersions, 0, complicationVersions, 0, complicationVersions.size)
+    }
+
+    fun isSameAs(other: RenderKey): Boolean {
+        if( localMinute != other.localMinute ||
+            ringSecond != other.ringSecond ||
+            flags != other.flags ||
+            colors != other.colors ||
+            weatherVersion != other.weatherVersion ||
+            forcedVersion != other.forcedVersion ) {
+            return false
+        }
+
+        for(i in complicationVersions.indices) {
+            if( complicationVersions[i] != other.complicationVersions[i] ) {
+                return false
+            }
+        }
+
+        return true
+    }
+
+    companion object {
+        const val FLAG_AMBIENT = 1
+        const val FLAG_LOW_BIT_AMBIENT = 1 shl 1
+        const val FLAG_BURN_IN_PROTECTION = 1 shl 2
+        const val FLAG_MUTE_MODE = 1 shl 3
+        const val FLAG_PREMIUM = 1 shl 4
+        const val FLAG_24H_FORMAT = 1 shl 5
+        const val FLAG_WEAR_OS_LOGO = 1 shl 6
+        const val FLAG_COMPLICATIONS_AMBIENT = 1 shl 7
+        const val FLAG_FILLED_TIME_AMBIENT = 1 shl 8
+        const val FLAG_SECONDS_RING = 1 shl 9
+        const val FLAG_WEATHER = 1 shl 10
+        const val FLAG_DEBUG_OVERLAY = 1 shl 11
+        // Time size is stored in the upper bits
+        const val TIME_SIZE_SHIFT = 16
+    }
+}
+
+enum class FrameRequestReason {
+    TIME_TICK,
+    SCHEDULER,
+    COMPLICATION_DATA,
+    WEATHER_DATA,
+    DRAWABLE,
+    AMBIENT_MODE,
+    INTERRUPTION_FILTER,
+    PROPERTIES,
+    VISIBILITY,
+    TIME_ZONE,
+    SETTINGS,
+    RESOURCES,
+}
+
+class FrameRequestStats {
+    private val drawn = LongArray(FrameRequestReason.values().size)
+    private val elided = LongArray(FrameRequestReason.values().size)
+
+    fun onDrawn(reason: FrameRequestReason) {
+        drawn[reason.ordinal]++
+    }
+
+    fun onElided(reason: FrameRequestReason) {
+        elided[reason.ordinal]++
+    }
+
+    fun dump(prefix: String, writer: PrintWriter) {
+        for(reason in FrameRequestReason.values()) {
+            writer.print(prefix)
+            writer.println("${reason.name}: drawn ${drawn[reason.ordinal]}, elided ${elided[reason.ordinal]}")
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface
+
+import android.os.SystemClock
+import android.os.Trace
+import android.util.Log
+import java.io.PrintWriter
+import java.util.*
+
+private const val TAG = "StartupTrace"
+private const val NANOS_PER_MS = 1_000_000.0
+
+/**
+ * Records the phases of the engine startup, from onCreateEngine to the first frame, with the
+ * thread they ran on. Phases also show up as systrace sections.
+ */
+class StartupTrace {
+    private val startNanos = SystemClock.elapsedRealtimeNanos()
+    private val events = ArrayList<Event>()
+    private var firstFrameNanos = -1L
+
+    fun <T> trace(name: String, block: () -> T): T {
+        Trace.beginSection(name)
+        val start = SystemClock.elapsedRealtimeNanos()
+        try {
+            return block()
+        } finally {
+            record(name, start, SystemClock.elapsedRealtimeNanos())
+            Trace.endSection()
+        }
+    }
+
+    fun mark(name: String) {
+        val now = SystemClock.elapsedRealtimeNanos()
+        record(name, now, now)
+    }
+
+    fun isFirstFrameDrawn(): Boolean = firstFrameNanos >= 0
+
+    /**
+     * To be called after the first frame is drawn, logs the whole trace on debug builds. Release
+     * builds only expose it through [dump].
+     */
+    fun onFirstFrameDrawn() {
+        if( isFirstFrameDrawn() ) {
+            return
+        }
+
+        firstFrameNanos = SystemClock.elapsedRealtimeNanos()
+        record("first frame", firstFrameNanos, firstFrameNanos)
+
+        if( !BuildConfig.DEBUG ) {
+            return
+        }
+
+        synchronized(events) {
+            Log.d(TAG, "First frame drawn ${formatMs(firstFrameNanos - startNanos)}ms after engine creation")
+            for(event in events) {
+                Log.d(TAG, event.format())
+            }
+        }
+    }
+
+    fun dump(prefix: String, writer: PrintWriter) {
+        synchronized(events) {
+            for(event in events) {
+                writer.print(prefix)
+                writer.println(event.format())
+            }
+        }
+    }
+
+    private fun record(name: String, start: Long, end: Long) {
+        synchronized(events) {
+            events.add(Event(name, Thread.currentThread().name, start - startNanos, end - start))
+        }
+    }
+
+    private fun Event.format(): String {
+        return "+${formatMs(offsetNanos)}ms $name (${formatMs(durationNanos)}ms on $threadName)"
+    }
+
+    private fun formatMs(nanos: Long) = String.format(Locale.US, "%.1f", nanos / NANOS_PER_MS)
+
+    private class Event(val name: String, val threadName: String, val offsetNanos: Long, val durationNanos: Long)
+}
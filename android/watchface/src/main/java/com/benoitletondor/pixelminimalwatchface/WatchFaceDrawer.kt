@@ -18,46 +18,83 @@ package com.benoitletondor.pixelminimalwatchface
 import android.content.Context
 import android.graphics.*
 import android.graphics.drawable.Icon
+import android.os.Handler
+import android.os.Looper
 import android.support.wearable.complications.ComplicationData
-import android.support.wearable.complications.ComplicationText
 import android.support.wearable.complications.rendering.ComplicationDrawable
-import android.text.format.DateUtils.*
-import android.util.ArrayMap
-import android.util.DisplayMetrics
-import android.util.SparseArray
 import android.view.WindowInsets
 import androidx.annotation.ColorInt
 import androidx.core.content.ContextCompat
 import androidx.core.content.res.ResourcesCompat
+import androidx.core.graphics.ColorUtils
 import com.benoitletondor.pixelminimalwatchface.PixelMinimalWatchFace.Companion.BOTTOM_COMPLICATION_ID
 import com.benoitletondor.pixelminimalwatchface.PixelMinimalWatchFace.Companion.LEFT_COMPLICATION_ID
 import com.benoitletondor.pixelminimalwatchface.PixelMinimalWatchFace.Companion.MIDDLE_COMPLICATION_ID
 import com.benoitletondor.pixelminimalwatchface.PixelMinimalWatchFace.Companion.RIGHT_COMPLICATION_ID
-import com.benoitletondor.pixelminimalwatchface.helper.sameAs
-import com.benoitletondor.pixelminimalwatchface.helper.timeSizeToScaleFactor
+import com.benoitletondor.pixelminimalwatchface.drawer.BitmapPool
+import com.benoitletondor.pixelminimalwatchface.drawer.BottomLineLayout
+import com.benoitletondor.pixelminimalwatchface.drawer.DateTextEngine
+import com.benoitletondor.pixelminimalwatchface.drawer.FacePaints
+import com.benoitletondor.pixelminimalwatchface.drawer.FacePaintsTable
+import com.benoitletondor.pixelminimalwatchface.drawer.SecondsRingAccumulator
+import com.benoitletondor.pixelminimalwatchface.drawer.SharedResources
+import com.benoitletondor.pixelminimalwatchface.drawer.StaticLayer
+import com.benoitletondor.pixelminimalwatchface.drawer.TimeGlyphAtlas
+import com.benoitletondor.pixelminimalwatchface.drawer.TimeTextEngine
+import com.benoitletondor.pixelminimalwatchface.drawer.WeatherIconCache
 import com.benoitletondor.pixelminimalwatchface.helper.toBitmap
+import com.benoitletondor.pixelminimalwatchface.layout.LayoutBounds
+import com.benoitletondor.pixelminimalwatchface.layout.LayoutPlan
+import com.benoitletondor.pixelminimalwatchface.layout.ScreenSpec
+import com.benoitletondor.pixelminimalwatchface.layout.TextMetrics
+import com.benoitletondor.pixelminimalwatchface.layout.computeLayoutPlan
+import com.benoitletondor.pixelminimalwatchface.layout.timeSizeToScaleFactor
 import com.benoitletondor.pixelminimalwatchface.model.ComplicationColors
 import com.benoitletondor.pixelminimalwatchface.model.Storage
-import java.text.SimpleDateFormat
+import com.benoitletondor.pixelminimalwatchface.model.WatchFaceSettings
+import java.io.PrintWriter
 import java.util.*
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
 import kotlin.math.*
 
+private const val BACKGROUND_RESOURCES_COUNT = 3
+private const val BITMAP_POOL_MAX_BYTES = 256 * 1024L
+private const val MUTE_MODE_ALPHA = 0x99
+private const val BURN_IN_FILLED_TIME_ALPHA = 0xB0
+
+private const val RESOURCE_TYPE_LOGO = "logo"
+private const val RESOURCE_TYPE_FONT = "font"
+private const val RESOURCE_TYPE_TIME_GLYPH_ATLAS = "timeGlyphAtlas"
+private const val FONT_DEFAULT = "default"
+private const val FONT_PRODUCT_SANS = "productSans"
+
 interface WatchFaceDrawer {
-    fun onCreate(context: Context, storage: Storage)
+    /**
+     * @param onResourcesUpdated called on the main thread each time a resource loaded in
+     * background becomes available and the face should be redrawn
+     */
+    fun onCreate(context: Context, storage: Storage, startupTrace: StartupTrace, onResourcesUpdated: () -> Unit)
+    fun onDestroy()
 
     fun onApplyWindowInsets(insets: WindowInsets)
+    fun onTimeZoneChanged()
     fun onSurfaceChanged(width: Int, height: Int)
-    fun setComplicationDrawable(complicationId: Int, complicationDrawable: ComplicationDrawable)
-    fun onComplicationColorsUpdate(complicationColors: ComplicationColors, complicationsData: SparseArray<ComplicationData>)
-    fun onComplicationDataUpdate(complicationId: Int,
-                                 complicationDrawable: ComplicationDrawable,
-                                 data: ComplicationData?,
-                                 complicationColors: ComplicationColors)
+    fun setComplicationSlots(complicationSlots: ComplicationSlots)
+    fun setFrameProfiler(frameProfiler: FrameProfiler)
+    fun onComplicationColorsUpdate(complicationColors: ComplicationColors)
+    fun onComplicationDataUpdate(slot: ComplicationSlot, complicationColors: ComplicationColors)
+    fun invalidateStaticLayer()
+    fun registerCaches(cacheManager: CacheManager)
+    fun dump(prefix: String, writer: PrintWriter)
     fun tapIsOnWeather(x: Int, y: Int): Boolean
     fun tapIsInCenterOfScreen(x: Int, y: Int): Boolean
 
+    /**
+     * Called for every frame: must not allocate once caches are built and the content is stable.
+     */
     fun draw(canvas: Canvas,
-             currentTime: Date,
+             currentTimeMillis: Long,
              muteMode: Boolean,
              ambient:Boolean,
              lowBitAmbient: Boolean,
@@ -66,18 +103,21 @@ interface WatchFaceDrawer {
 
 }
 
-class WatchFaceDrawerImpl : WatchFaceDrawer {
+class WatchFaceDrawerImpl : WatchFaceDrawer, Storage.SettingsListener {
     private lateinit var storage: Storage
+    private lateinit var settings: WatchFaceSettings
     private lateinit var context: Context
     private var drawingState: DrawingState = DrawingState.NoScreenData
-    private val complicationsDrawable: MutableMap<Int, ComplicationDrawable> = ArrayMap()
+    private var complicationSlots = ComplicationSlots(emptyArray())
+    private lateinit var frameProfiler: FrameProfiler
+    // Only created once the debug overlay is shown
+    private var debugOverlayPaint: Paint? = null
 
-    private lateinit var wearOSLogoPaint: Paint
+    // Hold the typeface and size shared by all modes, the paints of each mode are copies of them
     private lateinit var timePaint: Paint
     private lateinit var datePaint: Paint
-    private lateinit var weatherIconPaint: Paint
-    private lateinit var weatherIconColorFilter: ColorFilter
-    private lateinit var weatherIconColorFilterDimmed: ColorFilter
+    private val paintsTable = FacePaintsTable { mode -> buildPaints(mode) }
+    private lateinit var paints: FacePaints
     private lateinit var secondsRingPaint: Paint
     @ColorInt private var backgroundColor: Int = 0
     @ColorInt private var timeColor: Int = 0
@@ -85,39 +125,52 @@ class WatchFaceDrawerImpl : WatchFaceDrawer {
     @ColorInt private var dateColor: Int = 0
     @ColorInt private var dateColorDimmed: Int = 0
     @ColorInt private var complicationTitleColor: Int = 0
-    private lateinit var wearOSLogo: Bitmap
-    private lateinit var wearOSLogoAmbient: Bitmap
-    private lateinit var productSansRegularFont: Typeface
+    // Loaded in background, the face is drawn without them (default font, no logo) until ready
+    private var wearOSLogo: Bitmap? = null
+    private var wearOSLogoAmbient: Bitmap? = null
+    private var productSansRegularFont: Typeface = Typeface.DEFAULT
+    private var fontName = FONT_DEFAULT
+    // Handles of the process-wide resources used by this drawer, released on destroy
+    private val sharedResources = ArrayList<SharedResources.Handle<*>>()
+    private lateinit var onResourcesUpdated: () -> Unit
+    private val mainHandler = Handler(Looper.getMainLooper())
+    private var isDestroyed = false
     private var titleSize: Int = 0
     private var textSize: Int = 0
     private var chinSize: Int = 0
     private var isRound: Boolean = false
-    private lateinit var timeFormatter24H: SimpleDateFormat
-    private lateinit var timeFormatter12H: SimpleDateFormat
-    private var currentTimeSize = 0
-    private val secondsCalendar = Calendar.getInstance()
-    private var spaceBeforeWeather = 0
-
-    override fun onCreate(context: Context, storage: Storage) {
+    private var xdpi = 0f
+    private var timeGlyphAtlas: SharedResources.Handle<TimeGlyphAtlas>? = null
+    private var isTimeGlyphAtlasTrimmed = false
+    private val timeText = TimeTextEngine()
+    private lateinit var dateText: DateTextEngine
+    private val staticLayer = StaticLayer()
+    private val secondsRing = SecondsRingAccumulator()
+    private val bitmapPool = BitmapPool(BITMAP_POOL_MAX_BYTES)
+    private lateinit var weatherIconCache: WeatherIconCache
+    private var timeZone = TimeZone.getDefault()
+
+    override fun onCreate(context: Context, storage: Storage, startupTrace: StartupTrace, onResourcesUpdated: () -> Unit) {
         this.context = context
         this.storage = storage
+        this.onResourcesUpdated = onResourcesUpdated
+
+        loadResourcesInBackground(context, startupTrace)
 
-        currentTimeSize = storage.getTimeSize()
-        wearOSLogoPaint = Paint()
         backgroundColor = ContextCompat.getColor(context, R.color.face_background)
         timeColor = ContextCompat.getColor(context, R.color.face_time)
         timeColorDimmed = ContextCompat.getColor(context, R.color.face_time_dimmed)
         dateColor = ContextCompat.getColor(context, R.color.face_date)
         dateColorDimmed = ContextCompat.getColor(context, R.color.face_date_dimmed)
         complicationTitleColor = ContextCompat.getColor(context, R.color.complication_title_color)
-        wearOSLogo = ContextCompat.getDrawable(context, R.drawable.ic_wear_os_logo)!!.toBitmap()
-        wearOSLogoAmbient = ContextCompat.getDrawable(context, R.drawable.ic_wear_os_logo_ambient)!!.toBitmap()
-        productSansRegularFont = ResourcesCompat.getFont(context, R.font.product_sans_regular)!!
-        timeFormatter24H = SimpleDateFormat("HH:mm", Locale.getDefault())
-        timeFormatter12H = SimpleDateFormat("h:mm", Locale.getDefault())
+        dateText = DateTextEngine(context)
+        weatherIconCache = WeatherIconCache(context, bitmapPool) {
+            staticLayer.invalidate()
+            onResourcesUpdated()
+        }
         titleSize = context.resources.getDimensionPixelSize(R.dimen.complication_title_size)
         textSize = context.resources.getDimensionPixelSize(R.dimen.complication_text_size)
-        spaceBeforeWeather = context.dpToPx(5)
+        xdpi = context.resources.displayMetrics.xdpi
         timePaint = Paint().apply {
             typeface = productSansRegularFont
             strokeWidth = 1.8f
@@ -125,15 +178,94 @@ class WatchFaceDrawerImpl : WatchFaceDrawer {
         datePaint = Paint().apply {
             typeface = productSansRegularFont
         }
-        weatherIconPaint = Paint()
-        weatherIconColorFilter = PorterDuffColorFilter(dateColor, PorterDuff.Mode.SRC_IN)
-        weatherIconColorFilterDimmed = PorterDuffColorFilter(dateColorDimmed, PorterDuff.Mode.SRC_IN)
         secondsRingPaint = Paint().apply {
             style = Paint.Style.STROKE
+            strokeCap = Paint.Cap.BUTT
             color = Color.WHITE
             strokeWidth = 10F
             isAntiAlias = true
+            // Seamless accumulation of the ring segments, see SecondsRingAccumulator
+            xfermode = PorterDuffXfermode(PorterDuff.Mode.ADD)
+        }
+
+        // Read last so that the storage has as much time as possible to load in background
+        settings = storage.getSettings()
+        storage.addSettingsListener(this)
+    }
+
+    /**
+     * Rasterizing the logos and loading the font are independent and the slowest parts of the
+     * startup: they run in parallel while the first frames are drawn with what's ready.
+     */
+    private fun loadResourcesInBackground(context: Context, startupTrace: StartupTrace) {
+        val executor = Executors.newFixedThreadPool(BACKGROUND_RESOURCES_COUNT)
+        val densityDpi = context.resources.displayMetrics.densityDpi
+
+        loadInBackground(executor, startupTrace, "load wear os logo",
+            SharedResources.Key(RESOURCE_TYPE_LOGO, R.drawable.ic_wear_os_logo, densityDpi), {
+            ContextCompat.getDrawable(context, R.drawable.ic_wear_os_logo)!!.toBitmap()
+        }, { wearOSLogo = it })
+
+        loadInBackground(executor, startupTrace, "load wear os ambient logo",
+            SharedResources.Key(RESOURCE_TYPE_LOGO, R.drawable.ic_wear_os_logo_ambient, densityDpi), {
+            ContextCompat.getDrawable(context, R.drawable.ic_wear_os_logo_ambient)!!.toBitmap()
+        }, { wearOSLogoAmbient = it })
+
+        loadInBackground(executor, startupTrace, "load font",
+            SharedResources.Key(RESOURCE_TYPE_FONT, R.font.product_sans_regular), {
+            ResourcesCompat.getFont(context, R.font.product_sans_regular)!!
+        }, { font ->
+            productSansRegularFont = font
+            fontName = FONT_PRODUCT_SANS
+            timePaint.typeface = font
+            datePaint.typeface = font
+            paintsTable.invalidate()
+            for(i in 0 until complicationSlots.size) {
+                complicationSlots[i].drawable.setTypeface(font)
+            }
+        })
+
+        executor.shutdown()
+    }
+
+    private fun <T : Any> loadInBackground(executor: Executor,
+                                           startupTrace: StartupTrace,
+                                           name: String,
+                                           key: SharedResources.Key,
+                                           load: () -> T,
+                                           onLoaded: (T) -> Unit) {
+        executor.execute {
+            // Already loaded if another engine or a preview uses it
+            val resource = startupTrace.trace(name) { SharedResources.acquire(key, load) }
+
+            mainHandler.post {
+                if( isDestroyed ) {
+                    resource.release()
+                } else {
+                    sharedResources.add(resource)
+                    onLoaded(resource.value)
+                    onResourceLoaded()
+                }
+            }
+        }
+    }
+
+    private fun onResourceLoaded() {
+        // Layout depends on the font metrics and the logo size
+        val drawingState = drawingState
+        if( drawingState is DrawingState.CacheAvailable ) {
+            this.drawingState = drawingState.buildCache()
         }
+
+        staticLayer.invalidate()
+        onResourcesUpdated()
+    }
+
+    private fun ComplicationDrawable.setTypeface(typeface: Typeface) {
+        setTextTypefaceActive(typeface)
+        setTitleTypefaceActive(typeface)
+        setTextTypefaceAmbient(typeface)
+        setTitleTypefaceAmbient(typeface)
     }
 
     override fun onApplyWindowInsets(insets: WindowInsets) {
@@ -141,22 +273,33 @@ class WatchFaceDrawerImpl : WatchFaceDrawer {
         isRound = insets.isRound
     }
 
+    override fun onTimeZoneChanged() {
+        timeZone = TimeZone.getDefault()
+        timeText.invalidate()
+        dateText.invalidate()
+        staticLayer.invalidate()
+    }
+
     override fun onSurfaceChanged(width: Int, height: Int) {
-        drawingState = DrawingState.NoCacheAvailable(
-            width,
-            height,
-            width / 2f,
-            height / 2f
-        )
+        staticLayer.release()
+        drawingState = DrawingState.NoCacheAvailable(width, height)
     }
 
-    override fun setComplicationDrawable(complicationId: Int, complicationDrawable: ComplicationDrawable) {
-        complicationsDrawable[complicationId] = complicationDrawable
+    override fun setComplicationSlots(complicationSlots: ComplicationSlots) {
+        this.complicationSlots = complicationSlots
     }
 
-    override fun onComplicationColorsUpdate(complicationColors: ComplicationColors, complicationsData: SparseArray<ComplicationData>) {
-        complicationsDrawable.forEach { (complicationId, complicationDrawable) ->
-            val primaryComplicationColor = getComplicationPrimaryColor(complicationId, complicationColors)
+    override fun setFrameProfiler(frameProfiler: FrameProfiler) {
+        this.frameProfiler = frameProfiler
+    }
+
+    override fun onComplicationColorsUpdate(complicationColors: ComplicationColors) {
+        staticLayer.invalidate()
+
+        for(i in 0 until complicationSlots.size) {
+            val slot = complicationSlots[i]
+            val complicationDrawable = slot.drawable
+            val primaryComplicationColor = getComplicationPrimaryColor(slot.id, complicationColors)
 
             complicationDrawable.setTitleSizeActive(titleSize)
             complicationDrawable.setTitleSizeAmbient(titleSize)
@@ -164,24 +307,23 @@ class WatchFaceDrawerImpl : WatchFaceDrawer {
             complicationDrawable.setTitleColorAmbient(complicationTitleColor)
             complicationDrawable.setIconColorActive(primaryComplicationColor)
             complicationDrawable.setIconColorAmbient(dateColorDimmed)
-            complicationDrawable.setTextTypefaceActive(productSansRegularFont)
-            complicationDrawable.setTitleTypefaceActive(productSansRegularFont)
-            complicationDrawable.setTextTypefaceAmbient(productSansRegularFont)
-            complicationDrawable.setTitleTypefaceAmbient(productSansRegularFont)
+            complicationDrawable.setTypeface(productSansRegularFont)
 
-            if( complicationId == BOTTOM_COMPLICATION_ID ) {
+            if( slot.id == BOTTOM_COMPLICATION_ID ) {
                 complicationDrawable.setBorderColorActive(ContextCompat.getColor(context, R.color.transparent))
                 complicationDrawable.setBorderColorAmbient(ContextCompat.getColor(context, R.color.transparent))
             }
 
-            onComplicationDataUpdate(complicationId, complicationDrawable, complicationsData.get(complicationId), complicationColors)
+            onComplicationDataUpdate(slot, complicationColors)
         }
     }
 
-    override fun onComplicationDataUpdate(complicationId: Int,
-                                          complicationDrawable: ComplicationDrawable,
-                                          data: ComplicationData?,
-                                          complicationColors: ComplicationColors) {
+    override fun onComplicationDataUpdate(slot: ComplicationSlot, complicationColors: ComplicationColors) {
+        staticLayer.invalidate()
+
+        val complicationId = slot.id
+        val complicationDrawable = slot.drawable
+        val data = slot.data
         val primaryComplicationColor = getComplicationPrimaryColor(complicationId, complicationColors)
         if( data != null && data.icon != null ) {
             if( complicationId == BOTTOM_COMPLICATION_ID && ( data.longTitle != null ) ) {
@@ -207,29 +349,115 @@ class WatchFaceDrawerImpl : WatchFaceDrawer {
         }
     }
 
+    override fun onDestroy() {
+        isDestroyed = true
+        storage.removeSettingsListener(this)
+
+        staticLayer.release()
+        weatherIconCache.release()
+        // Decodes still running give their bitmap back after this, the pool recycles them
+        bitmapPool.release()
+        timeGlyphAtlas?.release()
+        timeGlyphAtlas = null
+        // The drawer keeps references to the bitmaps: they must not be drawn anymore
+        wearOSLogo = null
+        wearOSLogoAmbient = null
+        for(resource in sharedResources) {
+            resource.release()
+        }
+        sharedResources.clear()
+    }
+
+    override fun onSettingsChanged(oldSettings: WatchFaceSettings, newSettings: WatchFaceSettings) {
+        settings = newSettings
+
+        val drawingState = drawingState
+        if( oldSettings.timeSize != newSettings.timeSize && drawingState is DrawingState.CacheAvailable ) {
+            this.drawingState = drawingState.buildCache()
+        }
+
+        staticLayer.invalidate()
+    }
+
+    override fun invalidateStaticLayer() {
+        staticLayer.invalidate()
+    }
+
+    override fun registerCaches(cacheManager: CacheManager) {
+        cacheManager.register(object : TrimmableCache {
+            override fun getName() = "static layer"
+            override fun getByteCount() = staticLayer.getByteCount()
+
+            // Only used to draw the seconds ring in interactive mode
+            override fun trim(tier: Int) {
+                staticLayer.release()
+            }
+        })
+
+        cacheManager.register(object : TrimmableCache {
+            override fun getName() = "time glyph atlas (shared)"
+            override fun getByteCount() = timeGlyphAtlas?.value?.getByteCount() ?: 0L
+
+            // Other engines and previews may be drawing with the same atlas: only give this
+            // engine's reference back, SharedResources drops the atlas with its last user
+            override fun trim(tier: Int) {
+                if( tier >= CacheManager.TIER_REBUILDABLE && timeGlyphAtlas != null ) {
+                    timeGlyphAtlas?.release()
+                    timeGlyphAtlas = null
+                    isTimeGlyphAtlasTrimmed = true
+                    timeText.invalidateWidth()
+                }
+            }
+        })
+
+        cacheManager.register(object : TrimmableCache {
+            override fun getName() = "weather icons"
+            override fun getByteCount() = weatherIconCache.getByteCount()
+
+            override fun trim(tier: Int) {
+                if( tier >= CacheManager.TIER_REBUILDABLE ) {
+                    weatherIconCache.trim()
+                }
+            }
+        })
+
+        // Registered last so that it also drops what the other caches gave back when trimmed
+        cacheManager.register(object : TrimmableCache {
+            override fun getName() = "bitmap pool"
+            override fun getByteCount() = bitmapPool.getByteCount()
+
+            override fun trim(tier: Int) {
+                bitmapPool.clear()
+            }
+        })
+    }
+
+    override fun dump(prefix: String, writer: PrintWriter) {
+        writer.print(prefix)
+        writer.println("Weather icons: hits ${weatherIconCache.getHits()}, decodes ${weatherIconCache.getDecodes()}")
+        writer.print(prefix)
+        writer.println("Bitmap pool: ${bitmapPool.getByteCount()} bytes, hits ${bitmapPool.getHits()}, misses ${bitmapPool.getMisses()}")
+    }
+
     override fun tapIsOnWeather(x: Int, y: Int): Boolean {
         val drawingState = drawingState
-        if( !storage.shouldShowWeather() ||
-            !storage.isUserPremium() ||
+        if( !settings.showWeather ||
+            !settings.isUserPremium ||
             drawingState !is DrawingState.CacheAvailable ) {
             return false
         }
 
-        val displayRect = drawingState.getWeatherDisplayRect() ?: return false
-        return displayRect.contains(x, y)
+        return drawingState.bottomLine.isOnWeather(x, y)
     }
 
     override fun tapIsInCenterOfScreen(x: Int, y: Int): Boolean {
         val drawingState = drawingState as? DrawingState.CacheAvailable ?: return false
 
-        val centerRect = Rect(
-            (drawingState.screenWidth * 0.25f).toInt(),
-            (drawingState.screenHeight * 0.25f).toInt(),
-            (drawingState.screenWidth * 0.75f).toInt(),
-            (drawingState.screenHeight * 0.75f).toInt()
-        )
-
-        return centerRect.contains(x, y)
+        val screen = drawingState.plan.screen
+        return x >= (screen.width * 0.25f).toInt() &&
+            x < (screen.width * 0.75f).toInt() &&
+            y >= (screen.height * 0.25f).toInt() &&
+            y < (screen.height * 0.75f).toInt()
     }
 
     @ColorInt
@@ -243,300 +471,298 @@ class WatchFaceDrawerImpl : WatchFaceDrawer {
     }
 
     override fun draw(canvas: Canvas,
-                      currentTime: Date,
+                      currentTimeMillis: Long,
                       muteMode: Boolean,
                       ambient:Boolean,
                       lowBitAmbient: Boolean,
                       burnInProtection: Boolean,
                       weatherComplicationData: ComplicationData?) {
 
-        setPaintVariables(muteMode, ambient, lowBitAmbient, burnInProtection)
-        drawBackground(canvas)
-
         val currentDrawingState = drawingState
         if( currentDrawingState is DrawingState.NoCacheAvailable ) {
+            frameProfiler.beginPhase(FrameProfiler.PHASE_CACHE_BUILD)
             drawingState = currentDrawingState.buildCache()
-        } else if( currentDrawingState is DrawingState.CacheAvailable && currentTimeSize != storage.getTimeSize() ) {
-            drawingState = currentDrawingState.buildCache()
+            staticLayer.invalidate()
+            frameProfiler.endPhase(FrameProfiler.PHASE_CACHE_BUILD)
         }
 
+        // After building the cache, which can change the text sizes
+        frameProfiler.beginPhase(FrameProfiler.PHASE_SETTINGS)
+        paints = paintsTable.get(FacePaintsTable.getMode(
+            muteMode,
+            ambient,
+            lowBitAmbient,
+            burnInProtection,
+            settings.showFilledTimeInAmbientMode
+        ))
+        val isUserPremium = settings.isUserPremium
+        val showSecondsRing = settings.showSecondsRing
+        val showDebugOverlay = settings.showDebugOverlay
+        frameProfiler.endPhase(FrameProfiler.PHASE_SETTINGS)
+
         val drawingState = drawingState
-        if( drawingState is DrawingState.CacheAvailable ){
+        if( drawingState !is DrawingState.CacheAvailable ) {
+            drawBackground(canvas)
+            return
+        }
+
+        if( showSecondsRing && !ambient ) {
+            // Only the ring changes between 2 minutes: draw everything else from the static layer
+            // and accumulate the ring on top of it
+            if( staticLayer.needsRebuild(currentTimeMillis, muteMode) ) {
+                val layerCanvas = staticLayer.beginRebuild(drawingState.plan.screen.width, drawingState.plan.screen.height)
+                drawBackground(layerCanvas)
+                drawingState.draw(
+                    layerCanvas,
+                    currentTimeMillis,
+                    ambient,
+                    isUserPremium,
+                    weatherComplicationData
+                )
+                staticLayer.endRebuild(currentTimeMillis, muteMode)
+                secondsRing.reset()
+            }
+
+            frameProfiler.beginPhase(FrameProfiler.PHASE_RING)
+            staticLayer.canvas?.let { layerCanvas ->
+                drawingState.drawSecondsRing(layerCanvas, currentTimeMillis)
+            }
+            staticLayer.draw(canvas)
+            frameProfiler.endPhase(FrameProfiler.PHASE_RING)
+        } else {
+            staticLayer.invalidate()
+
+            drawBackground(canvas)
             drawingState.draw(
                 canvas,
-                currentTime,
-                muteMode, ambient,
-                lowBitAmbient,
-                burnInProtection,
-                storage.isUserPremium(),
-                storage.shouldShowSecondsRing(),
+                currentTimeMillis,
+                ambient,
+                isUserPremium,
                 weatherComplicationData
             )
         }
+
+        // On the final canvas so that it's never baked into the static layer
+        if( showDebugOverlay ) {
+            drawingState.drawDebugOverlay(canvas)
+        }
+    }
+
+    private fun DrawingState.CacheAvailable.drawDebugOverlay(canvas: Canvas) {
+        val paint = debugOverlayPaint ?: Paint().apply {
+            isAntiAlias = true
+            color = Color.YELLOW
+            textSize = plan.screen.dimens.debugOverlayTextSize.toFloat()
+            debugOverlayPaint = this
+        }
+
+        frameProfiler.drawOverlay(canvas, plan.screen.width * 0.2f, plan.screen.height * 0.2f, paint)
     }
 
     private fun DrawingState.NoCacheAvailable.buildCache(): DrawingState.CacheAvailable {
-        val timeSize = storage.getTimeSize()
-        setTimeAndDatePaintSize(timeSize)
+        setTimeAndDatePaintSize(settings.timeSize)
 
         val timeText = "22:13"
         val timeTextBounds = Rect().apply {
             timePaint.getTextBounds(timeText, 0, timeText.length, this)
         }
-        val timeYOffset = centerY + (timeTextBounds.height() / 2.0f ) - 5f
 
         val dateText = "May, 15"
         val dateTextHeight = Rect().apply {
             datePaint.getTextBounds(dateText, 0, dateText.length, this)
         }.height()
-        val dateYOffset = timeYOffset + (timeTextBounds.height() / 2) - (dateTextHeight / 2.0f ) + context.dpToPx(8)
 
-        val complicationsDrawingCache = buildComplicationDrawingCache(
-            timeYOffset - timeTextBounds.height() - context.dpToPx(2),
-            dateYOffset + dateTextHeight / 2
+        val plan = computeLayoutPlan(
+            ScreenSpec(screenWidth, screenHeight, isRound, chinSize, xdpi),
+            TextMetrics(timeTextBounds.height(), dateTextHeight),
+            wearOSLogo?.width ?: 0,
+            wearOSLogo?.height ?: 0
         )
 
-        currentTimeSize = timeSize
+        setComplicationBounds(LEFT_COMPLICATION_ID, plan.leftComplication)
+        setComplicationBounds(MIDDLE_COMPLICATION_ID, plan.middleComplication)
+        setComplicationBounds(RIGHT_COMPLICATION_ID, plan.rightComplication)
+        setComplicationBounds(BOTTOM_COMPLICATION_ID, plan.bottomComplication)
 
         return DrawingState.CacheAvailable(
-            screenWidth,
-            screenHeight,
-            centerX,
-            centerY,
-            timeYOffset,
-            dateTextHeight,
-            dateYOffset,
-            complicationsDrawingCache
-        )
-    }
-
-    private fun DrawingState.NoCacheAvailable.buildComplicationDrawingCache(topBottom: Float, bottomTop: Float): ComplicationsDrawingCache {
-        val wearOsImage = wearOSLogo
-
-        val sizeOfComplication = (screenWidth / 4.5).toInt()
-        val verticalOffset = topBottom.toInt() - sizeOfComplication
-        val distanceBetweenComplications = context.dpToPx(3)
-
-        val maxWidth = max(sizeOfComplication, wearOsImage.width)
-
-        val leftBounds = Rect(
-            (centerX - (maxWidth / 2) - distanceBetweenComplications - sizeOfComplication).toInt(),
-            verticalOffset,
-            (centerX - (maxWidth / 2)  - distanceBetweenComplications).toInt(),
-            (verticalOffset + sizeOfComplication)
-        )
-
-        complicationsDrawable[LEFT_COMPLICATION_ID]?.let { leftComplicationDrawable ->
-            leftComplicationDrawable.bounds = leftBounds
-        }
-
-        val middleBounds = Rect(
-            (centerX - (sizeOfComplication / 2)).toInt(),
-            verticalOffset,
-            (centerX + (sizeOfComplication / 2)).toInt(),
-            (verticalOffset + sizeOfComplication)
-        )
-
-        complicationsDrawable[MIDDLE_COMPLICATION_ID]?.let { middleComplicationDrawable ->
-            middleComplicationDrawable.bounds = middleBounds
-        }
-
-        val rightBounds = Rect(
-            (centerX + (maxWidth / 2) + distanceBetweenComplications).toInt(),
-            verticalOffset,
-            (centerX + (maxWidth / 2)  + distanceBetweenComplications + sizeOfComplication).toInt(),
-            (verticalOffset + sizeOfComplication)
-        )
-
-        complicationsDrawable[RIGHT_COMPLICATION_ID]?.let { rightComplicationDrawable ->
-            rightComplicationDrawable.bounds = rightBounds
-        }
-
-        val availableBottomSpace = screenHeight - bottomTop - chinSize - context.dpToPx(15)
-        val bottomComplicationHeight = min(availableBottomSpace, context.dpToPx(36).toFloat())
-        val bottomComplicationBottom = (bottomTop + bottomComplicationHeight).toInt()
-        val bottomComplicationLeft = computeComplicationLeft(bottomComplicationBottom, screenHeight)
-        val bottomComplicationWidth = (screenWidth - 2* bottomComplicationLeft) * 0.9
-        val bottomBounds = Rect(
-            (centerX - (bottomComplicationWidth / 2)).toInt(),
-            bottomTop.toInt() + context.dpToPx(5),
-            (centerX + (bottomComplicationWidth / 2)).toInt(),
-            bottomComplicationBottom
-        )
-
-        complicationsDrawable[BOTTOM_COMPLICATION_ID]?.let { bottomComplicationDrawable ->
-            bottomComplicationDrawable.bounds = bottomBounds
-        }
-
-        val iconXOffset = centerX - (wearOsImage.width / 2.0f)
-        val iconYOffset = leftBounds.top + (leftBounds.height() / 2) - (wearOsImage.height / 2)
-
-        return ComplicationsDrawingCache(
-            iconXOffset,
-            iconYOffset.toFloat()
+            plan,
+            BottomLineLayout(plan.screen.centerX, plan.dateYOffset, plan.dateTextHeight, plan.screen.dimens.spaceBeforeWeather)
         )
     }
 
-    private fun computeComplicationLeft(bottomY: Int, screenHeight: Int): Int {
-        return if( isRound ) {
-            screenHeight / 2 - sqrt((screenHeight / 2).toDouble().pow(2) - ((bottomY - (screenHeight / 2)).toDouble().pow(2))).toInt()
-        } else {
-            context.dpToPx(10)
-        }
+    private fun setComplicationBounds(complicationId: Int, bounds: LayoutBounds) {
+        val slot = complicationSlots.findById(complicationId) ?: return
+        slot.bounds.set(bounds.left, bounds.top, bounds.right, bounds.bottom)
+        slot.drawable.bounds = slot.bounds
     }
 
     private fun DrawingState.CacheAvailable.draw(canvas: Canvas,
-                                                 currentTime: Date,
-                                                 muteMode: Boolean,
+                                                 currentTimeMillis: Long,
                                                  ambient:Boolean,
-                                                 lowBitAmbient: Boolean,
-                                                 burnInProtection: Boolean,
                                                  isUserPremium: Boolean,
-                                                 drawSecondsRing: Boolean,
                                                  weatherComplicationData: ComplicationData?) {
-        val timeText = if( storage.getUse24hTimeFormat()) {
-            timeFormatter24H.format(currentTime)
-        } else {
-            timeFormatter12H.format(currentTime)
+        frameProfiler.beginPhase(FrameProfiler.PHASE_TIME)
+        timeText.update(currentTimeMillis, timeZone, settings.use24hTimeFormat)
+        if( isTimeGlyphAtlasTrimmed ) {
+            // Shared again if another engine still holds it, rebuilt otherwise
+            isTimeGlyphAtlasTrimmed = false
+            updateTimeGlyphAtlas()
+            timeText.invalidateWidth()
         }
-        val timeXOffset = centerX - (timePaint.measureText(timeText) / 2f)
-        canvas.drawText(timeText, timeXOffset, timeYOffset, timePaint)
-
-        complicationsDrawingCache.drawComplications(canvas, ambient, currentTime, isUserPremium)
-
-        val dateText = formatDateTime(context, currentTime.time, FORMAT_SHOW_DATE or FORMAT_SHOW_WEEKDAY or FORMAT_ABBREV_WEEKDAY)
-        val dateTextLength = datePaint.measureText(dateText)
-        val dateXOffset = if( isUserPremium && weatherComplicationData != null ) {
-            val weatherText = weatherComplicationData.shortText
-            val weatherIcon = weatherComplicationData.icon
-
-            if( weatherText != null && weatherIcon != null ) {
-                drawWeatherAndComputeDateXOffset(weatherText, weatherIcon, currentTime, dateTextLength, canvas)
+        val timeGlyphAtlas = timeGlyphAtlas?.value
+        val useGlyphAtlas = timeGlyphAtlas != null && timeGlyphAtlas.canRender(timeText.chars, 0, timeText.length)
+        if( timeText.width < 0 ) {
+            timeText.width = if( useGlyphAtlas ) {
+                timeGlyphAtlas!!.measure(paints.time, timeText.chars, 0, timeText.length)
             } else {
-                currentWeatherBitmap = null
-                currentWeatherIcon = null
-                weatherTextEndX = null
-
-                centerX - (dateTextLength / 2f)
+                paints.time.measureText(timeText.chars, 0, timeText.length)
             }
-        } else {
-            currentWeatherBitmap = null
-            currentWeatherIcon = null
-            weatherTextEndX = null
+        }
 
-            centerX - (dateTextLength / 2f)
+        val timeXOffset = plan.screen.centerX - (timeText.width / 2f)
+        val timeYOffset = plan.timeYOffset
+        if( useGlyphAtlas ) {
+            timeGlyphAtlas!!.draw(canvas, timeText.chars, 0, timeText.length, timeXOffset, timeYOffset, paints.time)
+        } else {
+            canvas.drawText(timeText.chars, 0, timeText.length, timeXOffset, timeYOffset, paints.time)
         }
+        frameProfiler.endPhase(FrameProfiler.PHASE_TIME)
 
-        canvas.drawText(dateText, dateXOffset, dateYOffset, datePaint)
+        frameProfiler.beginPhase(FrameProfiler.PHASE_COMPLICATIONS)
+        drawComplications(canvas, ambient, currentTimeMillis, isUserPremium)
+        frameProfiler.endPhase(FrameProfiler.PHASE_COMPLICATIONS)
 
-        if( drawSecondsRing && !ambient ) {
-            secondsCalendar.time = currentTime
+        frameProfiler.beginPhase(FrameProfiler.PHASE_DATE)
+        dateText.update(currentTimeMillis, timeZone)
+        val weatherIcon = weatherComplicationData?.icon
+        val weatherText = if( isUserPremium && weatherIcon != null ) { weatherComplicationData?.shortText } else { null }
+        bottomLine.update(context, dateText.text, weatherText, currentTimeMillis, paints.date)
 
-            val endAngle = (secondsCalendar.get(Calendar.SECOND) * 6).toFloat()
-            canvas.drawArc(0F, 0F, screenWidth.toFloat(), screenHeight.toFloat(), 270F, endAngle, false, secondsRingPaint)
-        }
-    }
+        canvas.drawText(dateText.text, bottomLine.dateX, plan.dateYOffset, paints.date)
+        frameProfiler.endPhase(FrameProfiler.PHASE_DATE)
 
-    private fun DrawingState.CacheAvailable.drawWeatherAndComputeDateXOffset(
-        weatherText: ComplicationText,
-        weatherIcon: Icon,
-        currentTime: Date,
-        dateTextLength: Float,
-        canvas: Canvas
-    ): Float {
-        val weatherIconSize = dateHeight
-        val weatherTextString = weatherText.getText(context, currentTime.time).toString()
-        val weatherTextLength = datePaint.measureText(weatherTextString)
-        val dateFontMetrics = datePaint.fontMetrics
-
-        val dateXOffset = centerX - (dateTextLength / 2f) - weatherTextLength / 2f - weatherIconSize / 2f - spaceBeforeWeather - dateFontMetrics.descent / 4f
-
-        weatherIconRect.left = (dateXOffset + dateTextLength + spaceBeforeWeather).toInt()
-        weatherIconRect.top = (dateYOffset - weatherIconSize + dateFontMetrics.descent / 2f).toInt()
-        weatherIconRect.right = (dateXOffset + dateTextLength + weatherIconSize + spaceBeforeWeather + dateFontMetrics.descent / 2f).toInt()
-        weatherIconRect.bottom = (dateYOffset + dateFontMetrics.descent).toInt()
-
-        val cachedWeatherIcon = this.currentWeatherIcon
-        val cachedWeatherBitmap = this.currentWeatherBitmap
-        val weatherIconBitmap = if ( cachedWeatherIcon != null && cachedWeatherBitmap != null && weatherIcon.sameAs(cachedWeatherIcon) ) {
-            cachedWeatherBitmap
-        } else {
-            val bitmap = weatherIcon.loadDrawable(context).toBitmap(weatherIconRect.right - weatherIconRect.left, weatherIconRect.bottom - weatherIconRect.top)
-            currentWeatherBitmap = bitmap
-            currentWeatherIcon = weatherIcon
-
-            bitmap
+        if( weatherIcon != null && bottomLine.hasWeather ) {
+            frameProfiler.beginPhase(FrameProfiler.PHASE_WEATHER)
+            drawWeather(canvas, weatherIcon)
+            frameProfiler.endPhase(FrameProfiler.PHASE_WEATHER)
         }
+    }
 
-        val weatherTextX = dateXOffset + dateTextLength + weatherIconSize + spaceBeforeWeather * 2
+    private fun DrawingState.CacheAvailable.drawSecondsRing(canvas: Canvas, currentTimeMillis: Long) {
+        val second = Math.floorMod(Math.floorDiv(currentTimeMillis, 1000L), 60L).toInt()
+        secondsRing.drawUpTo(canvas, second, plan.screen.width.toFloat(), plan.screen.height.toFloat(), secondsRingPaint)
+    }
 
+    private fun DrawingState.CacheAvailable.drawWeather(canvas: Canvas, weatherIcon: Icon) {
         canvas.drawText(
-            weatherTextString,
-            weatherTextX,
-            dateYOffset,
-            datePaint
-        )
-        canvas.drawBitmap(
-            weatherIconBitmap,
-            null,
-            weatherIconRect,
-            weatherIconPaint
+            bottomLine.weatherText,
+            bottomLine.weatherTextX,
+            plan.dateYOffset,
+            paints.date
         )
 
-        weatherTextEndX = weatherTextX + weatherTextLength
-
-        return dateXOffset
+        // Decoded in background on miss, the icon is drawn on the next frame once ready
+        val weatherIconRect = bottomLine.weatherIconRect
+        val weatherIconBitmap = weatherIconCache.get(weatherIcon, weatherIconRect.width(), weatherIconRect.height())
+        if( weatherIconBitmap != null ) {
+            canvas.drawBitmap(
+                weatherIconBitmap,
+                null,
+                weatherIconRect,
+                paints.weatherIcon
+            )
+        }
     }
 
-    private fun ComplicationsDrawingCache.drawComplications(canvas: Canvas, ambient: Boolean, currentTime: Date, isUserPremium: Boolean) {
-        if( isUserPremium && (storage.shouldShowComplicationsInAmbientMode() || !ambient) ) {
-            complicationsDrawable.forEach { (complicationId, complicationDrawable) ->
-                if( complicationId != MIDDLE_COMPLICATION_ID || !storage.shouldShowWearOSLogo() ) {
-                    complicationDrawable.draw(canvas, currentTime.time)
+    private fun DrawingState.CacheAvailable.drawComplications(canvas: Canvas, ambient: Boolean, currentTimeMillis: Long, isUserPremium: Boolean) {
+        if( isUserPremium && (settings.showComplicationsInAmbientMode || !ambient) ) {
+            for(i in 0 until complicationSlots.size) {
+                val slot = complicationSlots[i]
+                if( slot.id != MIDDLE_COMPLICATION_ID || !settings.showWearOSLogo ) {
+                    frameProfiler.beginSlot(i)
+                    slot.drawable.draw(canvas, currentTimeMillis)
+                    frameProfiler.endSlot(i)
                 }
             }
         }
 
-        if( storage.shouldShowWearOSLogo() ) {
+        if( settings.showWearOSLogo ) {
             val wearOsImage = if( ambient ) { wearOSLogoAmbient } else { wearOSLogo }
-            canvas.drawBitmap(wearOsImage, iconXOffset, iconYOffset, wearOSLogoPaint)
+            if( wearOsImage != null ) {
+                canvas.drawBitmap(wearOsImage, plan.wearOSLogoX, plan.wearOSLogoY, paints.wearOSLogo)
+            }
         }
     }
 
     private fun DrawingState.CacheAvailable.buildCache(): DrawingState.CacheAvailable {
-        return DrawingState.NoCacheAvailable(screenWidth, screenHeight, centerX, centerY).buildCache()
+        return DrawingState.NoCacheAvailable(plan.screen.width, plan.screen.height).buildCache()
     }
 
     private fun drawBackground(canvas: Canvas) {
         canvas.drawColor(backgroundColor)
     }
 
-    private fun setPaintVariables(muteMode: Boolean,
-                                  ambient:Boolean,
-                                  lowBitAmbient: Boolean,
-                                  burnInProtection: Boolean) {
-        wearOSLogoPaint.isAntiAlias = !ambient
-
-        timePaint.apply {
-            isAntiAlias = !(ambient && lowBitAmbient)
-            style = if( ambient && !storage.shouldShowFilledTimeInAmbientMode() ) { Paint.Style.STROKE } else { Paint.Style.FILL }
-            color = if( ambient ) { timeColorDimmed } else { timeColor }
+    private fun buildPaints(mode: Int): FacePaints {
+        val muteMode = mode and FacePaintsTable.MODE_MUTE != 0
+        val ambient = mode and FacePaintsTable.MODE_AMBIENT != 0
+        val lowBitAmbient = mode and FacePaintsTable.MODE_LOW_BIT_AMBIENT != 0
+        val burnInProtection = mode and FacePaintsTable.MODE_BURN_IN_PROTECTION != 0
+        val filledTime = !ambient || mode and FacePaintsTable.MODE_FILLED_TIME_AMBIENT != 0
+
+        var timeColor = if( ambient ) { timeColorDimmed } else { timeColor }
+        var dateColor = if( ambient ) { dateColorDimmed } else { dateColor }
+        if( muteMode ) {
+            timeColor = ColorUtils.setAlphaComponent(timeColor, MUTE_MODE_ALPHA)
+            dateColor = ColorUtils.setAlphaComponent(dateColor, MUTE_MODE_ALPHA)
         }
-
-        datePaint.apply {
-            isAntiAlias = !(ambient && lowBitAmbient)
-            color = if( ambient ) { dateColorDimmed } else { dateColor }
+        // Large lit areas are what burns in: dim the filled time in ambient on those screens
+        if( ambient && burnInProtection && filledTime ) {
+            timeColor = ColorUtils.setAlphaComponent(timeColor, min(Color.alpha(timeColor), BURN_IN_FILLED_TIME_ALPHA))
         }
 
-        weatherIconPaint.apply {
-            isAntiAlias = !ambient
-            colorFilter = if( ambient ) { weatherIconColorFilterDimmed } else { weatherIconColorFilter }
-        }
+        return FacePaints(
+            wearOSLogo = Paint().apply {
+                isAntiAlias = !ambient
+                if( muteMode ) {
+                    alpha = MUTE_MODE_ALPHA
+                }
+            },
+            time = Paint(timePaint).apply {
+                isAntiAlias = !(ambient && lowBitAmbient)
+                style = if( filledTime ) { Paint.Style.FILL } else { Paint.Style.STROKE }
+                color = timeColor
+            },
+            date = Paint(datePaint).apply {
+                isAntiAlias = !(ambient && lowBitAmbient)
+                color = dateColor
+            },
+            // Weather icons are ALPHA_8 masks: the filter tints the paint color they are drawn with
+            weatherIcon = Paint().apply {
+                isAntiAlias = !ambient
+                colorFilter = PorterDuffColorFilter(dateColor, PorterDuff.Mode.SRC_IN)
+            }
+        )
     }
 
-    private fun Context.dpToPx(dp: Int): Int {
-        val displayMetrics = resources.displayMetrics
-        return (dp * (displayMetrics.xdpi / DisplayMetrics.DENSITY_DEFAULT)).roundToInt()
+    /**
+     * Atlases are shared by all the drawers using the same font, size and stroke width
+     */
+    private fun updateTimeGlyphAtlas() {
+        val key = SharedResources.Key(
+            RESOURCE_TYPE_TIME_GLYPH_ATLAS,
+            size = timePaint.textSize,
+            variant = "$fontName/${timePaint.strokeWidth}"
+        )
+        if( timeGlyphAtlas?.key == key ) {
+            return
+        }
+
+        timeGlyphAtlas?.release()
+        val typeface = timePaint.typeface
+        val strokeWidth = timePaint.strokeWidth
+        timeGlyphAtlas = SharedResources.acquire(key) {
+            TimeGlyphAtlas().apply { setTextParams(key.size, typeface, strokeWidth) }
+        }
     }
 
     private fun setTimeAndDatePaintSize(timeSize: Int) {
@@ -549,6 +775,8 @@ class WatchFaceDrawerImpl : WatchFaceDrawer {
                 R.dimen.time_text_size
             }
         ) * scaleFactor
+        updateTimeGlyphAtlas()
+        timeText.invalidateWidth()
 
         val dateSize = context.resources.getDimension(
             if( isRound ) {
@@ -559,44 +787,14 @@ class WatchFaceDrawerImpl : WatchFaceDrawer {
         ) * scaleFactor
 
         datePaint.textSize = dateSize
+        paintsTable.invalidate()
     }
 }
 
 private sealed class DrawingState {
     object NoScreenData : DrawingState()
     data class NoCacheAvailable(val screenWidth: Int,
-                                val screenHeight: Int,
-                                val centerX: Float,
-                                val centerY: Float) : DrawingState()
-    data class CacheAvailable(val screenWidth: Int,
-                              val screenHeight: Int,
-                              val centerX: Float,
-                              val centerY: Float,
-                              val timeYOffset: Float,
-                              val dateHeight: Int,
-                              val dateYOffset: Float,
-                              val complicationsDrawingCache: ComplicationsDrawingCache,
-                              var currentWeatherIcon: Icon? = null,
-                              var currentWeatherBitmap: Bitmap? = null,
-                              var weatherTextEndX: Float? = null) : DrawingState() {
-        val weatherIconRect = Rect()
-
-        fun getWeatherDisplayRect(): Rect? {
-            val currentWeatherIcon = currentWeatherIcon
-            val currentWeatherBitmap = currentWeatherBitmap
-            val weatherTextEndX = weatherTextEndX
-            if( currentWeatherIcon == null || currentWeatherBitmap == null || weatherTextEndX == null ) {
-                return null
-            }
-
-            return Rect(weatherIconRect).apply {
-                right = weatherTextEndX.toInt()
-            }
-        }
-    }
+                                val screenHeight: Int) : DrawingState()
+    data class CacheAvailable(val plan: LayoutPlan,
+                              val bottomLine: BottomLineLayout) : DrawingState()
 }
-
-private data class ComplicationsDrawingCache(
-    val iconXOffset: Float,
-    val iconYOffset: Float
-)
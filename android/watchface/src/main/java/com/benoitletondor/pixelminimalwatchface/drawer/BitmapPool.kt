@@ -0,0 +1,128 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface.drawer
+
+import android.graphics.Bitmap
+import android.graphics.Color
+import android.util.SparseArray
+
+private const val MAX_BITMAPS_PER_BUCKET = 2
+
+/**
+ * Keeps released bitmaps by size and config so that the next bitmap of the same size doesn't
+ * need a new allocation. Thread safe: bitmaps are taken from background decodes and given back
+ * from the main thread.
+ *
+ * The pool owns the bitmaps given back to it: they must be put back instead of being recycled,
+ * the pool recycles the ones it doesn't keep. Once [release]d, the pool keeps nothing.
+ */
+class BitmapPool(private val maxBytes: Long) {
+    private val buckets = SparseArray<ArrayList<Bitmap>>()
+    private var bytes = 0L
+    private var isReleased = false
+
+    private var hits = 0L
+    private var misses = 0L
+
+    /**
+     * @return a cleared bitmap of the given size and config, reused if possible
+     */
+    @Synchronized
+    fun get(width: Int, height: Int, config: Bitmap.Config): Bitmap {
+        val bucket = buckets.get(bucketKey(width, height, config))
+        if( bucket != null ) {
+            for(i in bucket.indices.reversed()) {
+                val bitmap = bucket[i]
+                if( bitmap.width == width && bitmap.height == height && bitmap.config == config ) {
+                    bucket.removeAt(i)
+                    bytes -= bitmap.allocationByteCount
+                    hits++
+
+                    bitmap.eraseColor(Color.TRANSPARENT)
+                    return bitmap
+                }
+            }
+        }
+
+        misses++
+        return Bitmap.createBitmap(width, height, config)
+    }
+
+    /**
+     * Gives [bitmap] back to the pool. It must not be used by the caller anymore.
+     */
+    @Synchronized
+    fun put(bitmap: Bitmap) {
+        // A recycled bitmap would be handed out again and crash whoever draws into it
+        if( bitmap.isRecycled ) {
+            return
+        }
+
+        if( isReleased || !bitmap.isMutable ) {
+            bitmap.recycle()
+            return
+        }
+
+        val key = bucketKey(bitmap.width, bitmap.height, bitmap.config)
+        val bucket = buckets.get(key) ?: ArrayList<Bitmap>(MAX_BITMAPS_PER_BUCKET).also { buckets.put(key, it) }
+        if( bucket.any { it === bitmap } ) {
+            return
+        }
+
+        val byteCount = bitmap.allocationByteCount
+        if( bucket.size >= MAX_BITMAPS_PER_BUCKET || bytes + byteCount > maxBytes ) {
+            bitmap.recycle()
+            return
+        }
+
+        bucket.add(bitmap)
+        bytes += byteCount
+    }
+
+    @Synchronized
+    fun clear() {
+        for(i in 0 until buckets.size()) {
+            for(bitmap in buckets.valueAt(i)) {
+                bitmap.recycle()
+            }
+        }
+
+        buckets.clear()
+        bytes = 0
+    }
+
+    /**
+     * Recycles the pooled bitmaps, and the ones given back from now on.
+     */
+    @Synchronized
+    fun release() {
+        isReleased = true
+        clear()
+    }
+
+    @Synchronized
+    fun getByteCount(): Long = bytes
+
+    @Synchronized
+    fun getHits(): Long = hits
+
+    @Synchronized
+    fun getMisses(): Long = misses
+
+    private fun bucketKey(width: Int, height: Int, config: Bitmap.Config?): Int {
+        return ((width and 0xFFF) shl 20) or ((height and 0xFFF) shl 8) or ((config?.ordinal ?: 0xFF) and 0xFF)
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface.drawer
+
+import android.content.Context
+import android.graphics.Paint
+import android.graphics.Rect
+import android.support.wearable.complications.ComplicationText
+
+/**
+ * Positions of the date and weather line. They only depend on the date text, the weather text
+ * and the date paint, so they are computed when one of them changes and frames just draw at the
+ * precomputed coordinates.
+ *
+ * A new instance must be used when the date paint size or typeface changes.
+ */
+class BottomLineLayout(private val centerX: Float,
+                       private val dateYOffset: Float,
+                       private val iconSize: Int,
+                       private val spaceBeforeWeather: Int) {
+    var dateX = 0f
+        private set
+    var hasWeather = false
+        private set
+    var weatherText = ""
+        private set
+    var weatherTextX = 0f
+        private set
+    val weatherIconRect = Rect()
+    private val weatherDisplayRect = Rect()
+
+    private val fontMetrics = Paint.FontMetrics()
+    private var dateText: String? = null
+
+    // The weather text is resolved once per ComplicationText until its next change
+    private var weatherTextSource: ComplicationText? = null
+    private var weatherTextValidFrom = Long.MAX_VALUE
+    private var weatherTextValidUntil = Long.MIN_VALUE
+
+    /**
+     * @param weatherText the weather to display next to the date, null to only display the date
+     */
+    fun update(context: Context,
+               dateText: String,
+               weatherText: ComplicationText?,
+               timeMillis: Long,
+               datePaint: Paint) {
+        val weatherString = if( weatherText != null ) {
+            resolveWeatherText(context, weatherText, timeMillis)
+        } else {
+            null
+        }
+
+        if( dateText === this.dateText &&
+            hasWeather == (weatherString != null) &&
+            (weatherString == null || weatherString == this.weatherText) ) {
+            return
+        }
+
+        this.dateText = dateText
+        val dateTextLength = datePaint.measureText(dateText)
+        if( weatherString == null ) {
+            hasWeather = false
+            dateX = centerX - (dateTextLength / 2f)
+            return
+        }
+
+        hasWeather = true
+        this.weatherText = weatherString
+
+        val weatherTextLength = datePaint.measureText(weatherString)
+        datePaint.getFontMetrics(fontMetrics)
+
+        dateX = centerX - (dateTextLength / 2f) - weatherTextLength / 2f - iconSize / 2f - spaceBeforeWeather - fontMetrics.descent / 4f
+
+        weatherIconRect.left = (dateX + dateTextLength + spaceBeforeWeather).toInt()
+        weatherIconRect.top = (dateYOffset - iconSize + fontMetrics.descent / 2f).toInt()
+        weatherIconRect.right = (dateX + dateTextLength + iconSize + spaceBeforeWeather + fontMetrics.descent / 2f).toInt()
+        weatherIconRect.bottom = (dateYOffset + fontMetrics.descent).toInt()
+
+        weatherTextX = dateX + dateTextLength + iconSize + spaceBeforeWeather * 2
+
+        weatherDisplayRect.set(weatherIconRect)
+        weatherDisplayRect.right = (weatherTextX + weatherTextLength).toInt()
+    }
+
+    fun isOnWeather(x: Int, y: Int): Boolean {
+        return hasWeather && weatherDisplayRect.contains(x, y)
+    }
+
+    private fun resolveWeatherText(context: Context, text: ComplicationText, timeMillis: Long): String {
+        if( text === weatherTextSource && timeMillis >= weatherTextValidFrom && timeMillis < weatherTextValidUntil ) {
+            return weatherText
+        }
+
+        weatherTextSource = text
+        weatherTextValidFrom = timeMillis
+        weatherTextValidUntil = text.getNextChangeTime(timeMillis)
+
+        val resolved = text.getText(context, timeMillis).toString()
+        // Keep the same instance when the content didn't change so that layout is skipped
+        return if( resolved == weatherText ) { weatherText } else { resolved }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface.drawer
+
+import android.content.Context
+import android.text.format.DateUtils.*
+import java.util.*
+
+private const val NEXT_DAY_PRECOMPUTE_WINDOW_MS = 10 * 60 * 1000L
+private const val DATE_FORMAT_FLAGS = FORMAT_SHOW_DATE or FORMAT_SHOW_WEEKDAY or FORMAT_ABBREV_WEEKDAY
+
+/**
+ * Formats the date line once per local day instead of on every frame.
+ *
+ * The next day's text is prepared a few minutes before midnight so the first frame of the
+ * new day doesn't have to go through ICU.
+ */
+class DateTextEngine(private val context: Context) {
+    var text: String = ""
+        private set
+
+    private val calendar = Calendar.getInstance()
+    private var dayStart = Long.MAX_VALUE
+    private var dayEnd = Long.MIN_VALUE
+    private var nextDayText: String? = null
+    private var locale: Locale? = null
+
+    /**
+     * @return true if the text changed
+     */
+    fun update(timeMillis: Long, timeZone: TimeZone): Boolean {
+        val currentLocale = Locale.getDefault()
+        if( currentLocale !== locale ) {
+            locale = currentLocale
+            invalidate()
+        }
+
+        if( timeMillis in dayStart until dayEnd ) {
+            if( nextDayText == null && dayEnd - timeMillis <= NEXT_DAY_PRECOMPUTE_WINDOW_MS ) {
+                nextDayText = formatDateTime(context, dayEnd, DATE_FORMAT_FLAGS)
+            }
+
+            return false
+        }
+
+        val nextDayText = nextDayText
+        val previousDayEnd = dayEnd
+
+        computeDayBounds(timeMillis, timeZone)
+        text = if( nextDayText != null && dayStart == previousDayEnd ) {
+            nextDayText
+        } else {
+            formatDateTime(context, timeMillis, DATE_FORMAT_FLAGS)
+        }
+        this.nextDayText = null
+
+        return true
+    }
+
+    fun invalidate() {
+        dayStart = Long.MAX_VALUE
+        dayEnd = Long.MIN_VALUE
+        nextDayText = null
+    }
+
+    private fun computeDayBounds(timeMillis: Long, timeZone: TimeZone) {
+        calendar.timeZone = timeZone
+        calendar.timeInMillis = timeMillis
+        calendar.set(Calendar.HOUR_OF_DAY, 0)
+        calendar.set(Calendar.MINUTE, 0)
+        calendar.set(Calendar.SECOND, 0)
+        calendar.set(Calendar.MILLISECOND, 0)
+        dayStart = calendar.timeInMillis
+
+        calendar.add(Calendar.DAY_OF_YEAR, 1)
+        dayEnd = calendar.timeInMillis
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface.drawer
+
+import android.graphics.Paint
+
+/**
+ * Paints used to draw the face in a given mode. They are built once per mode and must not be
+ * mutated afterwards.
+ */
+class FacePaints(val wearOSLogo: Paint,
+                 val time: Paint,
+                 val date: Paint,
+                 val weatherIcon: Paint)
+
+/**
+ * Lazily built [FacePaints] for each combination of mode flags, so that switching mode is a
+ * single lookup instead of mutating the paints on every frame.
+ *
+ * Must be invalidated when something shared by all modes (typeface, text size) changes.
+ */
+class FacePaintsTable(private val build: (mode: Int) -> FacePaints) {
+    private val table = arrayOfNulls<FacePaints>(MODE_COUNT)
+
+    fun get(mode: Int): FacePaints {
+        return table[mode] ?: build(mode).also { table[mode] = it }
+    }
+
+    fun invalidate() {
+        table.fill(null)
+    }
+
+    companion object {
+        const val MODE_MUTE = 1
+        const val MODE_AMBIENT = 1 shl 1
+        const val MODE_LOW_BIT_AMBIENT = 1 shl 2
+        const val MODE_BURN_IN_PROTECTION = 1 shl 3
+        const val MODE_FILLED_TIME_AMBIENT = 1 shl 4
+        private const val MODE_COUNT = 1 shl 5
+
+        /**
+         * Flags only used in ambient are dropped in interactive mode so that those modes share
+         * the same paints.
+         */
+        fun getMode(muteMode: Boolean,
+                    ambient: Boolean,
+                    lowBitAmbient: Boolean,
+                    burnInProtection: Boolean,
+                    filledTimeInAmbient: Boolean): Int {
+            var mode = if( muteMode ) { MODE_MUTE } else { 0 }
+            if( ambient ) {
+                mode = mode or MODE_AMBIENT
+                if( lowBitAmbient ) { mode = mode or MODE_LOW_BIT_AMBIENT }
+                if( burnInProtection ) { mode = mode or MODE_BURN_IN_PROTECTION }
+                if( filledTimeInAmbient ) { mode = mode or MODE_FILLED_TIME_AMBIENT }
+            }
+
+            return mode
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface.drawer
+
+import android.graphics.Canvas
+import android.graphics.Paint
+
+private const val DEGREES_PER_SECOND = 6f
+
+/**
+ * Strokes the seconds ring incrementally on a persistent layer: every tick only draws the arc
+ * elapsed since the previous one instead of the whole ring since the start of the minute.
+ *
+ * The layer the ring is drawn on must be cleared at each minute boundary, [reset] must be
+ * called at the same time.
+ *
+ * Segments share their edges exactly, without overlap. The paint must have butt caps and blend
+ * with [android.graphics.PorterDuff.Mode.ADD] over an opaque black background: the anti-aliased
+ * coverages of 2 segments on either side of a seam then add up to a fully covered pixel, where
+ * regular alpha blending would leave a lighter tick at each seam.
+ */
+class SecondsRingAccumulator {
+    private var drawnSeconds = 0
+
+    fun reset() {
+        drawnSeconds = 0
+    }
+
+    /**
+     * Draws the ring up to [second], catching up on any frame that has been skipped since the
+     * last call.
+     */
+    fun drawUpTo(canvas: Canvas, second: Int, width: Float, height: Float, paint: Paint) {
+        if( second <= drawnSeconds ) {
+            return
+        }
+
+        val startAngle = drawnSeconds * DEGREES_PER_SECOND
+        val endAngle = second * DEGREES_PER_SECOND
+        canvas.drawArc(0F, 0F, width, height, 270F + startAngle, endAngle - startAngle, false, paint)
+
+        drawnSeconds = second
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface.drawer
+
+import android.graphics.Bitmap
+import java.io.PrintWriter
+
+/**
+ * Process-wide registry of immutable drawing resources (fonts, rasterized logos, glyph
+ * atlases...) shared by every engine and preview.
+ *
+ * Resources are reference counted: [acquire] loads the resource or returns the already loaded
+ * one, and it's released once the last [Handle] is released. Loading may happen on any thread,
+ * two threads acquiring the same key concurrently only load it once.
+ */
+object SharedResources {
+    private val entries = HashMap<Key, Entry>()
+
+    /**
+     * @param type kind of resource, e.g. "logo" or "font"
+     * @param id resource id, or 0 if not applicable
+     * @param densityDpi density the resource was loaded for, or 0 if density independent
+     * @param size size the resource was created for, or 0 if not applicable
+     * @param variant anything else the resource depends on
+     */
+    data class Key(
+        val type: String,
+        val id: Int = 0,
+        val densityDpi: Int = 0,
+        val size: Float = 0f,
+        val variant: String? = null
+    )
+
+    class Handle<T : Any> internal constructor(val key: Key, val value: T) {
+        private var released = false
+
+        fun release() {
+            synchronized(this) {
+                if( released ) {
+                    return
+                }
+
+                released = true
+            }
+
+            SharedResources.release(key)
+        }
+    }
+
+    private class Entry {
+        var value: Any? = null
+        var refCount = 0
+    }
+
+    fun <T : Any> acquire(key: Key, load: () -> T): Handle<T> {
+        val entry = synchronized(entries) {
+            entries.getOrPut(key) { Entry() }.also { it.refCount++ }
+        }
+
+        try {
+            synchronized(entry) {
+                @Suppress("UNCHECKED_CAST")
+                val value = entry.value as T? ?: load().also { entry.value = it }
+                return Handle(key, value)
+            }
+        } catch (t: Throwable) {
+            release(key)
+            throw t
+        }
+    }
+
+    private fun release(key: Key) {
+        val entry = synchronized(entries) {
+            val entry = entries[key] ?: return
+            entry.refCount--
+            if( entry.refCount > 0 ) {
+                return
+            }
+
+            entries.remove(key)
+            entry
+        }
+
+        synchronized(entry) {
+            when(val value = entry.value) {
+                is Bitmap -> value.recycle()
+                is TimeGlyphAtlas -> value.clear()
+            }
+            entry.value = null
+        }
+    }
+
+    /**
+     * @return the memory used by the bitmaps held by the registry. Fonts are not accounted.
+     */
+    fun getFootprintBytes(): Long {
+        var bytes = 0L
+        synchronized(entries) {
+            for(entry in entries.values) {
+                bytes += sizeOf(entry.value)
+            }
+        }
+
+        return bytes
+    }
+
+    fun dump(prefix: String, writer: PrintWriter) {
+        synchronized(entries) {
+            writer.print(prefix)
+            writer.println("${entries.size} entries, ${getFootprintBytes()} bytes")
+            for((key, entry) in entries) {
+                writer.print(prefix)
+                writer.println("  $key: ${entry.refCount} users, ${sizeOf(entry.value)} bytes")
+            }
+        }
+    }
+
+    private fun sizeOf(value: Any?): Long = when(value) {
+        is Bitmap -> if( value.isRecycled ) { 0L } else { value.allocationByteCount.toLong() }
+        is TimeGlyphAtlas -> value.getByteCount()
+        else -> 0L
+    }
+}
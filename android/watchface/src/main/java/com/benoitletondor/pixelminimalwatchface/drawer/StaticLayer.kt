@@ -0,0 +1,90 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface.drawer
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Paint
+
+private const val MINUTE_MS = 60_000L
+
+/**
+ * Offscreen copy of everything that only changes once a minute (background, time,
+ * complications, date, weather, logo) so that seconds ring frames are a single blit.
+ *
+ * The seconds ring is accumulated on top of it through [canvas], see [SecondsRingAccumulator].
+ */
+class StaticLayer {
+    private var bitmap: Bitmap? = null
+    var canvas: Canvas? = null
+        private set
+    private val paint = Paint()
+
+    private var isValid = false
+    private var epochMinute = Long.MIN_VALUE
+    private var muteMode = false
+
+    fun invalidate() {
+        isValid = false
+    }
+
+    fun needsRebuild(timeMillis: Long, muteMode: Boolean): Boolean {
+        return !isValid ||
+            Math.floorDiv(timeMillis, MINUTE_MS) != epochMinute ||
+            muteMode != this.muteMode
+    }
+
+    /**
+     * @return a canvas to draw the static content on. Call [endRebuild] once done.
+     */
+    fun beginRebuild(width: Int, height: Int): Canvas {
+        var bitmap = bitmap
+        var canvas = canvas
+        if( bitmap == null || canvas == null || bitmap.width != width || bitmap.height != height ) {
+            bitmap?.recycle()
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
+            canvas = Canvas(bitmap)
+
+            this.bitmap = bitmap
+            this.canvas = canvas
+        }
+
+        return canvas
+    }
+
+    fun endRebuild(timeMillis: Long, muteMode: Boolean) {
+        epochMinute = Math.floorDiv(timeMillis, MINUTE_MS)
+        this.muteMode = muteMode
+        isValid = true
+    }
+
+    fun draw(canvas: Canvas) {
+        val bitmap = bitmap ?: return
+        canvas.drawBitmap(bitmap, 0f, 0f, paint)
+    }
+
+    fun getByteCount(): Long {
+        val bitmap = bitmap ?: return 0
+        return bitmap.allocationByteCount.toLong()
+    }
+
+    fun release() {
+        bitmap?.recycle()
+        bitmap = null
+        canvas = null
+        isValid = false
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface.drawer
+
+import android.graphics.*
+import kotlin.math.ceil
+import kotlin.math.roundToInt
+
+private const val GLYPHS = "0123456789:"
+
+/**
+ * Pre-rasterized digits and colon used to draw the time with bitmap blits instead of
+ * shaping text on every frame.
+ *
+ * Glyphs are rendered as ALPHA_8 so the time color comes from the paint used to blit them.
+ * One atlas is kept per (style, anti-alias) variant and all of them are dropped when the
+ * text size, typeface or stroke width changes.
+ *
+ * Glyphs are placed with float advances that include the font's kerning of each pair, like
+ * drawText does. Each blit is then snapped to the nearest pixel so the glyph is copied 1:1
+ * instead of being resampled: a glyph can be up to half a pixel away from where drawText
+ * would put it, without this error adding up along the text.
+ */
+class TimeGlyphAtlas {
+    private val variants = arrayOfNulls<Variant>(4)
+    private var textSize = 0f
+    private var typeface: Typeface? = null
+    private var strokeWidth = 0f
+
+    private val srcRect = Rect()
+    private val dstRect = RectF()
+
+    fun setTextParams(textSize: Float, typeface: Typeface?, strokeWidth: Float) {
+        if( this.textSize == textSize && this.typeface == typeface && this.strokeWidth == strokeWidth ) {
+            return
+        }
+
+        this.textSize = textSize
+        this.typeface = typeface
+        this.strokeWidth = strokeWidth
+        clear()
+    }
+
+    fun clear() {
+        for(i in variants.indices) {
+            variants[i]?.bitmap?.recycle()
+            variants[i] = null
+        }
+    }
+
+    fun getByteCount(): Long {
+        var bytes = 0L
+        for(variant in variants) {
+            if( variant != null ) {
+                bytes += variant.bitmap.allocationByteCount
+            }
+        }
+
+        return bytes
+    }
+
+    fun canRender(text: CharArray, start: Int, end: Int): Boolean {
+        for(i in start until end) {
+            if( GLYPHS.indexOf(text[i]) < 0 ) {
+                return false
+            }
+        }
+
+        return true
+    }
+
+    fun measure(paint: Paint, text: CharArray, start: Int, end: Int): Float {
+        val variant = getVariant(paint)
+        var width = 0f
+        for(i in start until end) {
+            width += variant.getAdvance(text, i, end)
+        }
+
+        return width
+    }
+
+    /**
+     * Draws the text with its baseline at [y]. [paint] must be the paint the atlas is built
+     * for, its color is used to tint the glyphs.
+     */
+    fun draw(canvas: Canvas, text: CharArray, start: Int, end: Int, x: Float, y: Float, paint: Paint) {
+        val variant = getVariant(paint)
+        val top = y - variant.baseline
+
+        var cursor = x
+        for(i in start until end) {
+            val left = variant.cellWidth * GLYPHS.indexOf(text[i])
+
+            srcRect.set(left, 0, left + variant.cellWidth, variant.cellHeight)
+            dstRect.left = (cursor - variant.padding).roundToInt().toFloat()
+            dstRect.top = top.roundToInt().toFloat()
+            dstRect.right = dstRect.left + variant.cellWidth
+            dstRect.bottom = dstRect.top + variant.cellHeight
+            canvas.drawBitmap(variant.bitmap, srcRect, dstRect, paint)
+
+            cursor += variant.getAdvance(text, i, end)
+        }
+    }
+
+    private fun getVariant(paint: Paint): Variant {
+        val index = (if( paint.style == Paint.Style.STROKE ) { 1 } else { 0 }) + (if( paint.isAntiAlias ) { 2 } else { 0 })
+        return variants[index] ?: buildVariant(paint).also { variants[index] = it }
+    }
+
+    private fun buildVariant(paint: Paint): Variant {
+        val glyphPaint = Paint().apply {
+            typeface = this@TimeGlyphAtlas.typeface
+            textSize = this@TimeGlyphAtlas.textSize
+            strokeWidth = this@TimeGlyphAtlas.strokeWidth
+            style = paint.style
+            isAntiAlias = paint.isAntiAlias
+            color = Color.WHITE
+        }
+
+        val advances = FloatArray(GLYPHS.length)
+        glyphPaint.getTextWidths(GLYPHS, advances)
+
+        // Advance of the first glyph of each pair once kerned with the second one
+        val pairAdvances = FloatArray(GLYPHS.length * GLYPHS.length)
+        for(first in GLYPHS.indices) {
+            for(second in GLYPHS.indices) {
+                val pair = charArrayOf(GLYPHS[first], GLYPHS[second])
+                pairAdvances[first * GLYPHS.length + second] = glyphPaint.measureText(pair, 0, 2) - advances[second]
+            }
+        }
+
+        val padding = ceil(strokeWidth).toInt() + 1
+        val metrics = glyphPaint.fontMetrics
+        var maxAdvance = 0f
+        for(advance in advances) {
+            if( advance > maxAdvance ) {
+                maxAdvance = advance
+            }
+        }
+
+        val cellWidth = ceil(maxAdvance).toInt() + 2 * padding
+        val cellHeight = ceil(metrics.descent - metrics.ascent).toInt() + 2 * padding
+        val baseline = -metrics.ascent + padding
+
+        val bitmap = Bitmap.createBitmap(cellWidth * GLYPHS.length, cellHeight, Bitmap.Config.ALPHA_8)
+        val canvas = Canvas(bitmap)
+        for(i in GLYPHS.indices) {
+            canvas.drawText(GLYPHS, i, i + 1, (cellWidth * i + padding).toFloat(), baseline, glyphPaint)
+        }
+
+        return Variant(bitmap, advances, pairAdvances, cellWidth, cellHeight, baseline, padding)
+    }
+
+    private class Variant(
+        val bitmap: Bitmap,
+        val advances: FloatArray,
+        val pairAdvances: FloatArray,
+        val cellWidth: Int,
+        val cellHeight: Int,
+        val baseline: Float,
+        val padding: Int
+    ) {
+        fun getAdvance(text: CharArray, index: Int, end: Int): Float {
+            val glyphIndex = GLYPHS.indexOf(text[index])
+            return if( index + 1 < end ) {
+                pairAdvances[glyphIndex * GLYPHS.length + GLYPHS.indexOf(text[index + 1])]
+            } else {
+                advances[glyphIndex]
+            }
+        }
+    }
+}
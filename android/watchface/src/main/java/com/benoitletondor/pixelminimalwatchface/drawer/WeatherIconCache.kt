@@ -0,0 +1,225 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface.drawer
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.drawable.Icon
+import android.os.Build
+import android.os.Handler
+import android.os.Looper
+import android.util.Log
+import android.util.LruCache
+import com.benoitletondor.pixelminimalwatchface.helper.toBitmap
+import java.util.concurrent.Executors
+
+private const val MAX_ENTRIES = 4
+private const val MAX_FAILED_ENTRIES = 8
+// Delay before retrying an icon that failed to decode, doubled on every consecutive failure
+private const val RETRY_DELAY_MS = 5_000L
+private const val MAX_RETRY_DELAY_MS = 10 * 60_000L
+
+/**
+ * Small LRU of weather icons rasterized at the size they are drawn at.
+ *
+ * Icons are identified by what they point to (resource package and id, uri) so that the same
+ * icon sent again by the provider is a hit. Icons carrying their own bitmap or data can't be
+ * identified through the public API and are keyed by instance.
+ *
+ * [get] never decodes: a miss schedules a decode in background and returns null, [onIconLoaded]
+ * is called on the main thread once the bitmap is available. An icon that fails to decode is
+ * retried after a backoff.
+ *
+ * Weather icons are always drawn tinted so they are rasterized as [Bitmap.Config.ALPHA_8] masks,
+ * into bitmaps taken from [bitmapPool] and given back to it when evicted.
+ */
+class WeatherIconCache(private val context: Context,
+                       private val bitmapPool: BitmapPool,
+                       private val onIconLoaded: () -> Unit) {
+    private val cache = object : LruCache<IconKey, Bitmap>(MAX_ENTRIES) {
+        override fun entryRemoved(evicted: Boolean, key: IconKey, oldValue: Bitmap, newValue: Bitmap?) {
+            if( oldValue !== newValue ) {
+                bitmapPool.put(oldValue)
+            }
+        }
+    }
+    // Keys being decoded, or that failed to decode and are waiting for their retry delay
+    private val pendingKeys = HashSet<IconKey>()
+    // Consecutive decode failures by key
+    private val failureCounts = LruCache<IconKey, Int>(MAX_FAILED_ENTRIES)
+    private val executor = Executors.newSingleThreadExecutor()
+    private val mainHandler = Handler(Looper.getMainLooper())
+    private val lookupKey = IconKey()
+    private var lastIcon: Icon? = null
+    private var lastIdentity: Any? = null
+    private var isReleased = false
+
+    private var hits = 0L
+    private var decodes = 0L
+
+    /**
+     * Must be called on the main thread. Doesn't allocate unless [icon] is a new instance.
+     */
+    fun get(icon: Icon, width: Int, height: Int): Bitmap? {
+        if( isReleased || width <= 0 || height <= 0 ) {
+            return null
+        }
+
+        val identity = if( icon === lastIcon ) {
+            lastIdentity!!
+        } else {
+            icon.getIdentity().also {
+                lastIcon = icon
+                lastIdentity = it
+            }
+        }
+
+        lookupKey.set(identity, width, height)
+        val bitmap = cache.get(lookupKey)
+        if( bitmap != null ) {
+            hits++
+            return bitmap
+        }
+
+        if( !pendingKeys.contains(lookupKey) ) {
+            val key = lookupKey.copy()
+            pendingKeys.add(key)
+            decode(icon, key)
+        }
+
+        return null
+    }
+
+    private fun decode(icon: Icon, key: IconKey) {
+        decodes++
+
+        executor.execute {
+            val bitmap = try {
+                icon.loadDrawable(context)?.toBitmap(key.width, key.height, Bitmap.Config.ALPHA_8, bitmapPool)
+            } catch (t: Throwable) {
+                Log.e("WeatherIconCache", "Error while decoding weather icon", t)
+                null
+            }
+
+            mainHandler.post {
+                if( isReleased ) {
+                    bitmap?.let { bitmapPool.put(it) }
+                    return@post
+                }
+
+                if( bitmap == null ) {
+                    scheduleRetry(key)
+                    return@post
+                }
+
+                pendingKeys.remove(key)
+                failureCounts.remove(key)
+                cache.put(key, bitmap)
+                onIconLoaded()
+            }
+        }
+    }
+
+    private fun scheduleRetry(key: IconKey) {
+        val failureCount = (failureCounts.get(key) ?: 0) + 1
+        failureCounts.put(key, failureCount)
+
+        val delay = RETRY_DELAY_MS shl Math.min(failureCount - 1, 16)
+        // Leaving the key pending until then keeps get from decoding it again
+        mainHandler.postDelayed({ pendingKeys.remove(key) }, Math.min(delay, MAX_RETRY_DELAY_MS))
+    }
+
+    fun getByteCount(): Long {
+        var byteCount = 0L
+        for(bitmap in cache.snapshot().values) {
+            byteCount += bitmap.allocationByteCount
+        }
+
+        return byteCount
+    }
+
+    fun getHits(): Long = hits
+
+    fun getDecodes(): Long = decodes
+
+    /**
+     * Gives the decoded bitmaps back to the pool, they will be decoded again in background when
+     * needed.
+     */
+    fun trim() {
+        cache.evictAll()
+    }
+
+    fun release() {
+        isReleased = true
+        executor.shutdownNow()
+        mainHandler.removeCallbacksAndMessages(null)
+        cache.evictAll()
+        pendingKeys.clear()
+        failureCounts.evictAll()
+        lastIcon = null
+        lastIdentity = null
+    }
+
+    private fun Icon.getIdentity(): Any {
+        if( Build.VERSION.SDK_INT < Build.VERSION_CODES.P ) {
+            // Type, package, id and uri are only public from P, the description contains them
+            val description = toString()
+            return if( description.startsWith("Icon(typ=RESOURCE") || description.startsWith("Icon(typ=URI") ) {
+                description
+            } else {
+                InstanceIdentity(this)
+            }
+        }
+
+        return when(type) {
+            Icon.TYPE_RESOURCE -> "res:$resPackage:$resId"
+            Icon.TYPE_URI -> "uri:$uri"
+            else -> InstanceIdentity(this)
+        }
+    }
+
+    private class InstanceIdentity(private val icon: Icon) {
+        override fun equals(other: Any?): Boolean = other is InstanceIdentity && other.icon === icon
+        override fun hashCode(): Int = System.identityHashCode(icon)
+    }
+
+    private class IconKey {
+        var identity: Any = Unit
+            private set
+        var width = 0
+            private set
+        var height = 0
+            private set
+
+        fun set(identity: Any, width: Int, height: Int) {
+            this.identity = identity
+            this.width = width
+            this.height = height
+        }
+
+        fun copy(): IconKey = IconKey().also { it.set(identity, width, height) }
+
+        override fun equals(other: Any?): Boolean {
+            return other is IconKey &&
+                other.width == width &&
+                other.height == height &&
+                other.identity == identity
+        }
+
+        override fun hashCode(): Int = (identity.hashCode() * 31 + width) * 31 + height
+    }
+}
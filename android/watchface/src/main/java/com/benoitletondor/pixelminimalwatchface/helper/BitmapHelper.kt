@@ -18,17 +18,33 @@ package com.benoitletondor.pixelminimalwatchface.helper
 import android.graphics.Bitmap
 import android.graphics.Canvas
 import android.graphics.drawable.Drawable
+import com.benoitletondor.pixelminimalwatchface.drawer.BitmapPool
 
-fun Drawable.toBitmap(desiredWidth: Int = -1, desiredHeight: Int = -1): Bitmap {
-    val bitmap = Bitmap.createBitmap(
-        if( desiredWidth > 0 ) { desiredWidth } else { intrinsicWidth },
-        if( desiredHeight > 0 ) { desiredHeight } else { intrinsicHeight },
-        Bitmap.Config.ARGB_8888
-    )
+/**
+ * @param config use [Bitmap.Config.ALPHA_8] for assets that are only drawn tinted, they'll be
+ * drawn with the color of the paint
+ * @param pool if set, the bitmap is taken from it instead of being allocated
+ */
+fun Drawable.toBitmap(desiredWidth: Int = -1,
+                      desiredHeight: Int = -1,
+                      config: Bitmap.Config = Bitmap.Config.ARGB_8888,
+                      pool: BitmapPool? = null): Bitmap {
+    val width = if( desiredWidth > 0 ) { desiredWidth } else { intrinsicWidth }
+    val height = if( desiredHeight > 0 ) { desiredHeight } else { intrinsicHeight }
+    val bitmap = pool?.get(width, height, config) ?: Bitmap.createBitmap(width, height, config)
 
-    val canvas = Canvas(bitmap)
-    setBounds(0, 0, canvas.width, canvas.height)
-    draw(canvas)
+    try {
+        val canvas = Canvas(bitmap)
+        setBounds(0, 0, canvas.width, canvas.height)
+        draw(canvas)
+    } catch (t: Throwable) {
+        if( pool != null ) {
+            pool.put(bitmap)
+        } else {
+            bitmap.recycle()
+        }
+        throw t
+    }
 
     return bitmap
-}
\ No newline at end of file
+}
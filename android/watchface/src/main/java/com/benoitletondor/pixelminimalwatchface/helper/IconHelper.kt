@@ -1,7 +1,37 @@
 package com.benoitletondor.pixelminimalwatchface.helper
 
 import android.graphics.drawable.Icon
+import android.os.Build
 
-fun Icon.sameAs(otherIcon: Icon): Boolean {
-    return toString() == otherIcon.toString()
-}
\ No newline at end of file
+/**
+ * Compares icons by what they point to (resource or uri). Icons holding their own bitmap or
+ * data can't be compared through the public API, so they are never considered equal unless
+ * they are the same instance.
+ */
+fun isSameIconAs(icon: Icon?, otherIcon: Icon?): Boolean {
+    if( icon === otherIcon ) {
+        return true
+    }
+
+    if( icon == null || otherIcon == null ) {
+        return false
+    }
+
+    if( Build.VERSION.SDK_INT < Build.VERSION_CODES.P ) {
+        val description = icon.toString()
+        return !description.startsWith("Icon(typ=BITMAP") &&
+            !description.startsWith("Icon(typ=ADAPTIVE_BITMAP") &&
+            !description.startsWith("Icon(typ=DATA") &&
+            description == otherIcon.toString()
+    }
+
+    if( icon.type != otherIcon.type ) {
+        return false
+    }
+
+    return when(icon.type) {
+        Icon.TYPE_RESOURCE -> icon.resId == otherIcon.resId && icon.resPackage == otherIcon.resPackage
+        Icon.TYPE_URI -> icon.uri == otherIcon.uri
+        else -> false
+    }
+}
@@ -5,17 +5,6 @@ import com.benoitletondor.pixelminimalwatchface.R
 
 const val DEFAULT_TIME_SIZE = 50
 
-fun timeSizeToScaleFactor(timeSize: Int): Float {
-    return when(timeSize) {
-        0 -> 0.80f
-        25 -> 0.90f
-        50 -> 1f
-        75 -> 1.10f
-        100 -> 1.20f
-        else -> 1f
-    }
-}
-
 fun Context.timeSizeToHumanReadableString(timeSize: Int): String {
     return when(timeSize) {
         0 -> getString(R.string.time_size_0)
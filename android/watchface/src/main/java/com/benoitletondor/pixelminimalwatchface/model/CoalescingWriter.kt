@@ -0,0 +1,43 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface.model
+
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Turns a burst of write requests into a single write: the first request schedules [write]
+ * [delayMs] later, and every request made until it runs is served by that same write, which must
+ * save the latest values.
+ */
+class CoalescingWriter(
+    private val executor: ScheduledExecutorService,
+    private val delayMs: Long,
+    private val write: () -> Unit
+) {
+    private val isWriteScheduled = AtomicBoolean(false)
+
+    fun requestWrite() {
+        if( isWriteScheduled.compareAndSet(false, true) ) {
+            executor.schedule({
+                // Reset before writing so that a change made during the write schedules another one
+                isWriteScheduled.set(false)
+                write()
+            }, delayMs, TimeUnit.MILLISECONDS)
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface.model
+
+import android.util.AtomicFile
+import android.util.Log
+import java.io.*
+
+private const val TAG = "SettingsFile"
+
+private const val MAGIC = 0x504D5746 // "PMWF"
+private const val FORMAT_VERSION = 1
+
+private const val FLAG_USER_PREMIUM = 1
+private const val FLAG_USE_24H_TIME_FORMAT = 1 shl 1
+private const val FLAG_SHOW_WEAR_OS_LOGO = 1 shl 2
+private const val FLAG_SHOW_COMPLICATIONS_AMBIENT = 1 shl 3
+private const val FLAG_FILLED_TIME_AMBIENT = 1 shl 4
+private const val FLAG_SECONDS_RING = 1 shl 5
+private const val FLAG_SHOW_WEATHER = 1 shl 6
+private const val FLAG_RATING_DISPLAYED = 1 shl 7
+private const val FLAG_DEBUG_OVERLAY = 1 shl 8
+
+/**
+ * Everything [StorageImpl] persists.
+ */
+data class StoredValues(
+    val settings: WatchFaceSettings,
+    val complicationColor: Int,
+    val installTimestamp: Long,
+    val ratingDisplayed: Boolean,
+    val appVersion: Int
+)
+
+/**
+ * Small versioned binary file holding the [StoredValues]:
+ *
+ * - magic (int), format version (byte)
+ * - boolean flags (int)
+ * - complication color (int), time size (int), app version (int), install timestamp (long)
+ *
+ * New fields must be appended at the end with a new format version so that older files can
+ * still be read. Writes go through an [AtomicFile] so a crash never leaves a half written file.
+ */
+class SettingsFile(file: File) {
+    private val atomicFile = AtomicFile(file)
+
+    fun exists(): Boolean = atomicFile.baseFile.exists()
+
+    /**
+     * @return the stored values, or null if the file doesn't exist or can't be read
+     */
+    fun read(): StoredValues? {
+        if( !exists() ) {
+            return null
+        }
+
+        return try {
+            DataInputStream(BufferedInputStream(atomicFile.openRead())).use { input ->
+                readStoredValues(input)
+            }
+        } catch (e: Exception) {
+            Log.e(TAG, "Error reading settings file", e)
+            null
+        }
+    }
+
+    fun write(values: StoredValues): Boolean {
+        var output: FileOutputStream? = null
+        return try {
+            output = atomicFile.startWrite()
+
+            val dataOutput = DataOutputStream(BufferedOutputStream(output))
+            writeStoredValues(dataOutput, values)
+            dataOutput.flush()
+
+            atomicFile.finishWrite(output)
+            true
+        } catch (e: Exception) {
+            Log.e(TAG, "Error writing settings file", e)
+            output?.let { atomicFile.failWrite(it) }
+            false
+        }
+    }
+}
+
+internal fun writeStoredValues(output: DataOutput, values: StoredValues) {
+    output.writeInt(MAGIC)
+    output.writeByte(FORMAT_VERSION)
+    output.writeInt(values.toFlags())
+    output.writeInt(values.complicationColor)
+    output.writeInt(values.settings.timeSize)
+    output.writeInt(values.appVersion)
+    output.writeLong(values.installTimestamp)
+}
+
+/**
+ * @throws IOException if the content is truncated or isn't a settings file
+ */
+internal fun readStoredValues(input: DataInput): StoredValues {
+    if( input.readInt() != MAGIC ) {
+        throw IOException("Invalid settings file")
+    }
+
+    val version = input.readByte().toInt()
+    if( version < 1 ) {
+        throw IOException("Unknown settings file version: $version")
+    }
+
+    val flags = input.readInt()
+    val complicationColor = input.readInt()
+    val timeSize = input.readInt()
+    val appVersion = input.readInt()
+    val installTimestamp = input.readLong()
+
+    return StoredValues(
+        settings = WatchFaceSettings(
+            isUserPremium = flags and FLAG_USER_PREMIUM != 0,
+            use24hTimeFormat = flags and FLAG_USE_24H_TIME_FORMAT != 0,
+            showWearOSLogo = flags and FLAG_SHOW_WEAR_OS_LOGO != 0,
+            showComplicationsInAmbientMode = flags and FLAG_SHOW_COMPLICATIONS_AMBIENT != 0,
+            showFilledTimeInAmbientMode = flags and FLAG_FILLED_TIME_AMBIENT != 0,
+            timeSize = timeSize,
+            showSecondsRing = flags and FLAG_SECONDS_RING != 0,
+            showWeather = flags and FLAG_SHOW_WEATHER != 0,
+            showDebugOverlay = flags and FLAG_DEBUG_OVERLAY != 0
+        ),
+        complicationColor = complicationColor,
+        installTimestamp = installTimestamp,
+        ratingDisplayed = flags and FLAG_RATING_DISPLAYED != 0,
+        appVersion = appVersion
+    )
+}
+
+private fun StoredValues.toFlags(): Int {
+    var flags = 0
+    if( settings.isUserPremium ) { flags = flags or FLAG_USER_PREMIUM }
+    if( settings.use24hTimeFormat ) { flags = flags or FLAG_USE_24H_TIME_FORMAT }
+    if( settings.showWearOSLogo ) { flags = flags or FLAG_SHOW_WEAR_OS_LOGO }
+    if( settings.showComplicationsInAmbientMode ) { flags = flags or FLAG_SHOW_COMPLICATIONS_AMBIENT }
+    if( settings.showFilledTimeInAmbientMode ) { flags = flags or FLAG_FILLED_TIME_AMBIENT }
+    if( settings.showSecondsRing ) { flags = flags or FLAG_SECONDS_RING }
+    if( settings.showWeather ) { flags = flags or FLAG_SHOW_WEATHER }
+    if( ratingDisplayed ) { flags = flags or FLAG_RATING_DISPLAYED }
+    if( settings.showDebugOverlay ) { flags = flags or FLAG_DEBUG_OVERLAY }
+    return flags
+}
@@ -17,9 +17,21 @@ package com.benoitletondor.pixelminimalwatchface.model
 
 import android.content.Context
 import android.content.SharedPreferences
+import android.os.Handler
+import android.os.Looper
+import android.util.Log
 import com.benoitletondor.pixelminimalwatchface.helper.DEFAULT_TIME_SIZE
+import java.io.File
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+
+private const val TAG = "Storage"
 
 private const val SHARED_PREFERENCES_NAME = "pixelMinimalSharedPref"
+private const val SETTINGS_FILE_NAME = "settings.bin"
+// Changes made within this delay are written to disk in a single transaction
+private const val WRITE_DELAY_MS = 300L
 
 private const val DEFAULT_COMPLICATION_COLOR = -147282
 private const val KEY_COMPLICATION_COLORS = "complicationColors"
@@ -59,38 +71,63 @@ interface Storage {
     fun setShouldShowSecondsRing(showSecondsRing: Boolean)
     fun shouldShowWeather(): Boolean
     fun setShouldShowWeather(show: Boolean)
+    fun shouldShowDebugOverlay(): Boolean
+    fun setShouldShowDebugOverlay(show: Boolean)
+
+    /**
+     * @return the current settings, cheap enough to be called on every frame
+     */
+    fun getSettings(): WatchFaceSettings
+    fun addSettingsListener(listener: SettingsListener)
+    fun removeSettingsListener(listener: SettingsListener)
+
+    interface SettingsListener {
+        /**
+         * Called on the main thread every time a new settings snapshot is published
+         */
+        fun onSettingsChanged(oldSettings: WatchFaceSettings, newSettings: WatchFaceSettings)
+    }
 }
 
 class StorageImpl : Storage {
     private var initialized: Boolean = false
 
     private lateinit var appContext: Context
-    private lateinit var sharedPreferences: SharedPreferences
-
-    // Those values will be called up to 60 times a minute when not in ambient mode
-    // SharedPreferences uses a map so we cache the values to avoid map lookups
-    private var timeSizeCached = false
-    private var cacheTimeSize = 0
-    private var isUserPremiumCached = false
-    private var cacheIsUserPremium = false
-    private var isUse24hFormatCached = false
-    private var cacheUse24hFormat = false
-    private var shouldShowWearOSLogoCached = false
-    private var cacheShouldShowWearOSLogo = false
-    private var shouldShowComplicationsInAmbientModeCached = false
-    private var cacheShouldShowComplicationsInAmbientMode = false
-    private var shouldShowSecondsSettingCached = false
-    private var cacheShouldShowSecondsSetting = false
-    private var shouldShowWeatherCached = false
-    private var cacheShouldShowWeather = false
+    private lateinit var settingsFile: SettingsFile
 
+    private val executor = Executors.newSingleThreadScheduledExecutor()
+    private val mainHandler = Handler(Looper.getMainLooper())
+    private val loadedLatch = CountDownLatch(1)
+    private val writer = CoalescingWriter(executor, WRITE_DELAY_MS) {
+        settingsFile.write(getValues())
+    }
+    private val lock = Any()
+
+    // Settings are read on every frame: they are kept in an immutable snapshot that is replaced
+    // on every change, only null until the file has been loaded
+    @Volatile
+    private var values: StoredValues? = null
+    private val settingsListeners = CopyOnWriteArrayList<Storage.SettingsListener>()
+
+    /**
+     * Starts loading the stored values in background. Getters block until they are loaded so
+     * this should be called as early as possible.
+     */
     fun init(context: Context): Storage {
         if( !initialized ) {
             appContext = context.applicationContext
-            sharedPreferences = context.getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE)
-
-            if( getInstallTimestamp() < 0 ) {
-                sharedPreferences.edit().putLong(KEY_INSTALL_TIMESTAMP, System.currentTimeMillis()).apply()
+            settingsFile = SettingsFile(File(appContext.filesDir, SETTINGS_FILE_NAME))
+
+            executor.execute {
+                try {
+                    values = load()
+                } catch (t: Throwable) {
+                    // Getters must never be left without values, whatever went wrong
+                    Log.e(TAG, "Error loading settings, using defaults", t)
+                    values = defaultValues()
+                } finally {
+                    loadedLatch.countDown()
+                }
             }
 
             initialized = true
@@ -99,11 +136,125 @@ class StorageImpl : Storage {
         return this
     }
 
-    override fun getComplicationColors(): ComplicationColors {
-        val color = sharedPreferences.getInt(
-            KEY_COMPLICATION_COLORS,
-            DEFAULT_COMPLICATION_COLOR
+    /**
+     * Reads the settings file, falling back to migrating the SharedPreferences if it's missing or
+     * unreadable, and to default values if that fails too.
+     */
+    private fun load(): StoredValues {
+        settingsFile.read()?.let { return it }
+
+        return try {
+            val sharedPreferences = appContext.getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE)
+            val values = migrateFromSharedPreferences(sharedPreferences)
+
+            if( settingsFile.write(values) && sharedPreferences.all.isNotEmpty() ) {
+                sharedPreferences.edit().clear().apply()
+            }
+
+            values
+        } catch (e: Exception) {
+            Log.e(TAG, "Error migrating settings, using defaults", e)
+            defaultValues()
+        }
+    }
+
+    private fun defaultValues(): StoredValues = StoredValues(
+        settings = WatchFaceSettings(
+            isUserPremium = false,
+            use24hTimeFormat = true,
+            showWearOSLogo = true,
+            showComplicationsInAmbientMode = false,
+            showFilledTimeInAmbientMode = false,
+            timeSize = DEFAULT_TIME_SIZE,
+            showSecondsRing = false,
+            showWeather = false,
+            showDebugOverlay = false
+        ),
+        complicationColor = DEFAULT_COMPLICATION_COLOR,
+        installTimestamp = System.currentTimeMillis(),
+        ratingDisplayed = false,
+        appVersion = -1
+    )
+
+    /**
+     * Reads the values of the previous SharedPreferences based storage, that is cleared once
+     * migrated. Returns default values on a fresh install.
+     */
+    private fun migrateFromSharedPreferences(sharedPreferences: SharedPreferences): StoredValues {
+        val defaults = defaultValues()
+        return StoredValues(
+            settings = WatchFaceSettings(
+                isUserPremium = sharedPreferences.getBoolean(KEY_USER_PREMIUM, defaults.settings.isUserPremium),
+                use24hTimeFormat = sharedPreferences.getBoolean(KEY_USE_24H_TIME_FORMAT, defaults.settings.use24hTimeFormat),
+                showWearOSLogo = sharedPreferences.getBoolean(KEY_SHOW_WEAR_OS_LOGO, defaults.settings.showWearOSLogo),
+                showComplicationsInAmbientMode = sharedPreferences.getBoolean(KEY_SHOW_COMPLICATIONS_AMBIENT, defaults.settings.showComplicationsInAmbientMode),
+                showFilledTimeInAmbientMode = sharedPreferences.getBoolean(KEY_FILLED_TIME_AMBIENT, defaults.settings.showFilledTimeInAmbientMode),
+                timeSize = sharedPreferences.getInt(KEY_TIME_SIZE, defaults.settings.timeSize),
+                showSecondsRing = sharedPreferences.getBoolean(KEY_SECONDS_RING, defaults.settings.showSecondsRing),
+                showWeather = sharedPreferences.getBoolean(KEY_SHOW_WEATHER, defaults.settings.showWeather),
+                showDebugOverlay = defaults.settings.showDebugOverlay
+            ),
+            complicationColor = sharedPreferences.getInt(KEY_COMPLICATION_COLORS, defaults.complicationColor),
+            installTimestamp = sharedPreferences.getLong(KEY_INSTALL_TIMESTAMP, defaults.installTimestamp),
+            ratingDisplayed = sharedPreferences.getBoolean(KEY_RATING_NOTIFICATION_SENT, defaults.ratingDisplayed),
+            appVersion = sharedPreferences.getInt(KEY_APP_VERSION, defaults.appVersion)
         )
+    }
+
+    private fun getValues(): StoredValues {
+        values?.let { return it }
+
+        var interrupted = false
+        while( true ) {
+            try {
+                loadedLatch.await()
+                break
+            } catch (e: InterruptedException) {
+                interrupted = true
+            }
+        }
+
+        if( interrupted ) {
+            Thread.currentThread().interrupt()
+        }
+
+        // Always set once the latch is released, see init
+        return values!!
+    }
+
+    private fun update(transform: (StoredValues) -> StoredValues) {
+        val oldValues: StoredValues
+        val newValues: StoredValues
+        synchronized(lock) {
+            oldValues = getValues()
+            newValues = transform(oldValues)
+            if( newValues == oldValues ) {
+                return
+            }
+
+            values = newValues
+        }
+
+        writer.requestWrite()
+
+        if( oldValues.settings != newValues.settings ) {
+            notifySettingsChanged(oldValues.settings, newValues.settings)
+        }
+    }
+
+    private fun notifySettingsChanged(oldSettings: WatchFaceSettings, newSettings: WatchFaceSettings) {
+        if( Looper.myLooper() != Looper.getMainLooper() ) {
+            mainHandler.post { notifySettingsChanged(oldSettings, newSettings) }
+            return
+        }
+
+        for(listener in settingsListeners) {
+            listener.onSettingsChanged(oldSettings, newSettings)
+        }
+    }
+
+    override fun getComplicationColors(): ComplicationColors {
+        val color = getValues().complicationColor
 
         if( color == DEFAULT_COMPLICATION_COLOR) {
             return ComplicationColorsProvider.getDefaultComplicationColors(appContext)
@@ -120,151 +271,88 @@ class StorageImpl : Storage {
     }
 
     override fun setComplicationColors(complicationColors: ComplicationColors) {
-        sharedPreferences.edit().putInt(
-            KEY_COMPLICATION_COLORS,
-            if( complicationColors.isDefault ) {
+        update { it.copy(
+            complicationColor = if( complicationColors.isDefault ) {
                 DEFAULT_COMPLICATION_COLOR
             } else { complicationColors.leftColor }
-        ).apply()
+        ) }
     }
 
-    override fun isUserPremium(): Boolean {
-        if( !isUserPremiumCached ) {
-            cacheIsUserPremium = sharedPreferences.getBoolean(KEY_USER_PREMIUM, false)
-            isUserPremiumCached = true
-        }
-
-        return cacheIsUserPremium
-    }
+    override fun isUserPremium(): Boolean = getSettings().isUserPremium
 
     override fun setUserPremium(premium: Boolean) {
-        cacheIsUserPremium = premium
-        isUserPremiumCached = true
-
-        sharedPreferences.edit().putBoolean(KEY_USER_PREMIUM, premium).apply()
+        update { it.copy(settings = it.settings.copy(isUserPremium = premium)) }
     }
 
     override fun setUse24hTimeFormat(use: Boolean) {
-        cacheUse24hFormat = use
-        isUse24hFormatCached = true
-
-        sharedPreferences.edit().putBoolean(KEY_USE_24H_TIME_FORMAT, use).apply()
+        update { it.copy(settings = it.settings.copy(use24hTimeFormat = use)) }
     }
 
-    override fun getUse24hTimeFormat(): Boolean {
-        if( !isUse24hFormatCached ) {
-            cacheUse24hFormat = sharedPreferences.getBoolean(KEY_USE_24H_TIME_FORMAT, true)
-            isUse24hFormatCached = true
-        }
+    override fun getUse24hTimeFormat(): Boolean = getSettings().use24hTimeFormat
 
-        return cacheUse24hFormat
-    }
+    override fun getInstallTimestamp(): Long = getValues().installTimestamp
 
-    override fun getInstallTimestamp(): Long {
-        return sharedPreferences.getLong(KEY_INSTALL_TIMESTAMP, -1)
-    }
-
-    override fun hasRatingBeenDisplayed(): Boolean {
-        return sharedPreferences.getBoolean(KEY_RATING_NOTIFICATION_SENT, false)
-    }
+    override fun hasRatingBeenDisplayed(): Boolean = getValues().ratingDisplayed
 
     override fun setRatingDisplayed(sent: Boolean) {
-        sharedPreferences.edit().putBoolean(KEY_RATING_NOTIFICATION_SENT, sent).apply()
+        update { it.copy(ratingDisplayed = sent) }
     }
 
-    override fun getAppVersion(): Int {
-        return sharedPreferences.getInt(KEY_APP_VERSION, -1)
-    }
+    override fun getAppVersion(): Int = getValues().appVersion
 
     override fun setAppVersion(version: Int) {
-        sharedPreferences.edit().putInt(KEY_APP_VERSION, version).apply()
+        update { it.copy(appVersion = version) }
     }
 
-    override fun shouldShowWearOSLogo(): Boolean {
-        if( !shouldShowWearOSLogoCached ) {
-            cacheShouldShowWearOSLogo = sharedPreferences.getBoolean(KEY_SHOW_WEAR_OS_LOGO, true)
-            shouldShowWearOSLogoCached = true
-        }
-
-        return cacheShouldShowWearOSLogo
-    }
+    override fun shouldShowWearOSLogo(): Boolean = getSettings().showWearOSLogo
 
     override fun setShouldShowWearOSLogo(shouldShowWearOSLogo: Boolean) {
-        cacheShouldShowWearOSLogo = shouldShowWearOSLogo
-        shouldShowWearOSLogoCached = true
-
-        sharedPreferences.edit().putBoolean(KEY_SHOW_WEAR_OS_LOGO, shouldShowWearOSLogo).apply()
+        update { it.copy(settings = it.settings.copy(showWearOSLogo = shouldShowWearOSLogo)) }
     }
 
-    override fun shouldShowComplicationsInAmbientMode(): Boolean {
-        if( !shouldShowComplicationsInAmbientModeCached ) {
-            cacheShouldShowComplicationsInAmbientMode = sharedPreferences.getBoolean(KEY_SHOW_COMPLICATIONS_AMBIENT, false)
-            shouldShowComplicationsInAmbientModeCached = true
-        }
-
-        return cacheShouldShowComplicationsInAmbientMode
-    }
+    override fun shouldShowComplicationsInAmbientMode(): Boolean = getSettings().showComplicationsInAmbientMode
 
     override fun setShouldShowComplicationsInAmbientMode(show: Boolean) {
-        cacheShouldShowComplicationsInAmbientMode = show
-        shouldShowComplicationsInAmbientModeCached = true
-
-        sharedPreferences.edit().putBoolean(KEY_SHOW_COMPLICATIONS_AMBIENT, show).apply()
+        update { it.copy(settings = it.settings.copy(showComplicationsInAmbientMode = show)) }
     }
 
-    override fun shouldShowFilledTimeInAmbientMode(): Boolean {
-        return sharedPreferences.getBoolean(KEY_FILLED_TIME_AMBIENT, false)
-    }
+    override fun shouldShowFilledTimeInAmbientMode(): Boolean = getSettings().showFilledTimeInAmbientMode
 
     override fun setShouldShowFilledTimeInAmbientMode(showFilledTime: Boolean) {
-        sharedPreferences.edit().putBoolean(KEY_FILLED_TIME_AMBIENT, showFilledTime).apply()
+        update { it.copy(settings = it.settings.copy(showFilledTimeInAmbientMode = showFilledTime)) }
     }
 
-    override fun getTimeSize(): Int {
-        if( !timeSizeCached ) {
-            cacheTimeSize = sharedPreferences.getInt(KEY_TIME_SIZE, DEFAULT_TIME_SIZE)
-            timeSizeCached = true
-        }
+    override fun getTimeSize(): Int = getSettings().timeSize
 
-        return cacheTimeSize
+    override fun setTimeSize(timeSize: Int) {
+        update { it.copy(settings = it.settings.copy(timeSize = timeSize)) }
     }
 
-    override fun setTimeSize(timeSize: Int) {
-        cacheTimeSize = timeSize
-        timeSizeCached = true
+    override fun shouldShowSecondsRing(): Boolean = getSettings().showSecondsRing
 
-        sharedPreferences.edit().putInt(KEY_TIME_SIZE, timeSize).apply()
+    override fun setShouldShowSecondsRing(showSecondsRing: Boolean) {
+        update { it.copy(settings = it.settings.copy(showSecondsRing = showSecondsRing)) }
     }
 
-    override fun shouldShowSecondsRing(): Boolean {
-        if( !shouldShowSecondsSettingCached ) {
-            cacheShouldShowSecondsSetting = sharedPreferences.getBoolean(KEY_SECONDS_RING, false)
-            shouldShowSecondsSettingCached = true
-        }
+    override fun shouldShowWeather(): Boolean = getSettings().showWeather
 
-        return cacheShouldShowSecondsSetting
+    override fun setShouldShowWeather(show: Boolean) {
+        update { it.copy(settings = it.settings.copy(showWeather = show)) }
     }
 
-    override fun setShouldShowSecondsRing(showSecondsRing: Boolean) {
-        cacheShouldShowSecondsSetting = showSecondsRing
-        shouldShowSecondsSettingCached = true
+    override fun shouldShowDebugOverlay(): Boolean = getSettings().showDebugOverlay
 
-        sharedPreferences.edit().putBoolean(KEY_SECONDS_RING, showSecondsRing).apply()
+    override fun setShouldShowDebugOverlay(show: Boolean) {
+        update { it.copy(settings = it.settings.copy(showDebugOverlay = show)) }
     }
 
-    override fun shouldShowWeather(): Boolean {
-        if( !shouldShowWeatherCached ) {
-            cacheShouldShowWeather = sharedPreferences.getBoolean(KEY_SHOW_WEATHER, false)
-            shouldShowWeatherCached = true
-        }
+    override fun getSettings(): WatchFaceSettings = getValues().settings
 
-        return cacheShouldShowWeather
+    override fun addSettingsListener(listener: Storage.SettingsListener) {
+        settingsListeners.addIfAbsent(listener)
     }
 
-    override fun setShouldShowWeather(show: Boolean) {
-        cacheShouldShowWeather = show
-        shouldShowWeatherCached = true
-
-        sharedPreferences.edit().putBoolean(KEY_SHOW_WEATHER, show).apply()
+    override fun removeSettingsListener(listener: Storage.SettingsListener) {
+        settingsListeners.remove(listener)
     }
-}
\ No newline at end of file
+}
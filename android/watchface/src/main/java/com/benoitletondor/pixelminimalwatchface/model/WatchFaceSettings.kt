@@ -0,0 +1,31 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface.model
+
+/**
+ * Immutable snapshot of the user settings used to draw the watch face.
+ */
+data class WatchFaceSettings(
+    val isUserPremium: Boolean,
+    val use24hTimeFormat: Boolean,
+    val showWearOSLogo: Boolean,
+    val showComplicationsInAmbientMode: Boolean,
+    val showFilledTimeInAmbientMode: Boolean,
+    val timeSize: Int,
+    val showSecondsRing: Boolean,
+    val showWeather: Boolean,
+    val showDebugOverlay: Boolean
+)
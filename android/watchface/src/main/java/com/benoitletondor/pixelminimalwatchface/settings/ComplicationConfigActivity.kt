@@ -64,6 +64,15 @@ class ComplicationConfigActivity : Activity() {
             storage.setShouldShowSecondsRing(showSecondsRing)
         }, { showWeather ->
             storage.setShouldShowWeather(showWeather)
+        }, {
+            // Hidden toggle: frame phase timings drawn over the watch face
+            val showDebugOverlay = !storage.shouldShowDebugOverlay()
+            storage.setShouldShowDebugOverlay(showDebugOverlay)
+            Toast.makeText(
+                this,
+                if( showDebugOverlay ) { R.string.config_debug_overlay_enabled } else { R.string.config_debug_overlay_disabled },
+                Toast.LENGTH_SHORT
+            ).show()
         })
 
         wearable_recycler_view.isEdgeItemsCenteringEnabled = true
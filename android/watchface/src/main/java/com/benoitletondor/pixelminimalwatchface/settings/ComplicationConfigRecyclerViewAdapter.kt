@@ -67,7 +67,8 @@ class ComplicationConfigRecyclerViewAdapter(
     private val showFilledTimeAmbientListener: (Boolean) -> Unit,
     private val timeSizeChangedListener: (Int) -> Unit,
     private val showSecondsRingListener: (Boolean) -> Unit,
-    private val showWeatherListener: (Boolean) -> Unit
+    private val showWeatherListener: (Boolean) -> Unit,
+    private val versionLongPressListener: () -> Unit
 ) : RecyclerView.Adapter<RecyclerView.ViewHolder>() {
 
     private var selectedComplicationLocation: ComplicationLocation? = null
@@ -123,7 +124,8 @@ class ComplicationConfigRecyclerViewAdapter(
                     R.layout.config_list_footer,
                     parent,
                     false
-                )
+                ),
+                versionLongPressListener
             )
             TYPE_BECOME_PREMIUM -> return PremiumViewHolder(
                 LayoutInflater.from(parent.context).inflate(
@@ -517,11 +519,16 @@ class PreviewAndComplicationsViewHolder(
 
 class HeaderViewHolder(view: View) : RecyclerView.ViewHolder(view)
 
-class FooterViewHolder(view: View) : RecyclerView.ViewHolder(view) {
+class FooterViewHolder(view: View,
+                       versionLongPressListener: () -> Unit) : RecyclerView.ViewHolder(view) {
     private val versionTextView: TextView = view.findViewById(R.id.app_version)
 
     init {
         versionTextView.text = versionTextView.context.getString(R.string.config_version, BuildConfig.VERSION_NAME)
+        versionTextView.setOnLongClickListener {
+            versionLongPressListener()
+            true
+        }
     }
 }
 
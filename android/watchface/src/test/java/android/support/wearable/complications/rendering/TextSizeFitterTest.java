@@ -0,0 +1,126 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package android.support.wearable.complications.rendering;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TextSizeFitterTest {
+    /**
+     * The algorithm of the original renderer: 1px steps down from the base size until it fits
+     */
+    private static float linearFit(float baseTextSize, int availableWidth, TextSizeFitter.WidthMeasurer measurer) {
+        float textSize = baseTextSize;
+        while (measurer.measureWidth(textSize) > (float)availableWidth) {
+            textSize -= 1f;
+        }
+
+        return textSize;
+    }
+
+    /**
+     * Width of a text of {@code characters} glyphs, optionally with advances rounded to the pixel
+     * like hinted fonts do.
+     */
+    private static TextSizeFitter.WidthMeasurer textOf(final int characters, final float advanceRatio, final boolean hinted) {
+        return textSize -> {
+            if (textSize <= 0f) {
+                return 0f;
+            }
+
+            float advance = textSize * advanceRatio;
+            return characters * (hinted ? Math.round(advance) : advance);
+        };
+    }
+
+    @Test
+    public void returnsBaseSizeWhenTextFits() {
+        assertEquals(24f, TextSizeFitter.fit(24f, 200, textOf(5, 0.5f, false)), 0f);
+    }
+
+    @Test
+    public void matchesLinearScan() {
+        Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            float baseTextSize = random.nextBoolean() ? 6 + random.nextInt(40) : 6 + random.nextFloat() * 40;
+            int availableWidth = random.nextInt(300);
+            TextSizeFitter.WidthMeasurer measurer = textOf(1 + random.nextInt(12), 0.3f + random.nextFloat() * 0.5f, random.nextBoolean());
+
+            float expected = linearFit(baseTextSize, availableWidth, measurer);
+            float actual = TextSizeFitter.fit(baseTextSize, availableWidth, measurer);
+            if (expected > 0f) {
+                assertEquals("base " + baseTextSize + ", width " + availableWidth, expected, actual, 0f);
+            } else {
+                // The linear scan goes down to sizes Paint ignores, stop at the smallest positive one
+                assertEquals(baseTextSize - ((int)Math.ceil(baseTextSize) - 1), actual, 0f);
+            }
+        }
+    }
+
+    @Test
+    public void measuresLessThanLinearScanOverTypicalTexts() {
+        // Base text size, available width and characters shown of short texts in a side slot
+        // and long texts in the bottom slot of a 454px screen, fitting or not
+        int[][] texts = {
+            {24, 70, 3},
+            {24, 70, 6},
+            {24, 70, 9},
+            {32, 300, 12},
+            {32, 300, 32},
+            {32, 300, 48},
+        };
+
+        int linearMeasurements = 0;
+        int binaryMeasurements = 0;
+        for (int[] text : texts) {
+            final TextSizeFitter.WidthMeasurer measurer = textOf(text[2], 0.55f, true);
+            final int[] linear = {0};
+            final int[] binary = {0};
+            linearFit(text[0], text[1], textSize -> {
+                linear[0]++;
+                return measurer.measureWidth(textSize);
+            });
+            TextSizeFitter.fit(text[0], text[1], textSize -> {
+                binary[0]++;
+                return measurer.measureWidth(textSize);
+            });
+
+            System.out.println(text[2] + " characters in " + text[1] + "px fitted with " + binary[0] + " measurements, " + linear[0] + " for the linear scan");
+            linearMeasurements += linear[0];
+            binaryMeasurements += binary[0];
+        }
+
+        assertTrue(binaryMeasurements + " measurements, " + linearMeasurements + " for the linear scan",
+            binaryMeasurements * 2 <= linearMeasurements);
+    }
+
+    @Test
+    public void measuresLogarithmically() {
+        final int[] measurements = {0};
+        final TextSizeFitter.WidthMeasurer measurer = textOf(10, 0.5f, false);
+        float fitted = TextSizeFitter.fit(64f, 40, textSize -> {
+            measurements[0]++;
+            return measurer.measureWidth(textSize);
+        });
+
+        assertEquals(8f, fitted, 0f);
+        assertTrue("measured " + measurements[0] + " times", measurements[0] <= 7);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface
+
+import java.lang.management.ManagementFactory
+
+/**
+ * Counts the bytes allocated by the current thread, through the HotSpot thread MX bean that
+ * the JVM running unit tests provides.
+ */
+object AllocationCounter {
+    /**
+     * Allocations tolerated over a whole measurement, whatever the number of iterations: a
+     * single one-off object, never one per iteration.
+     */
+    const val ONE_OFF_TOLERANCE_BYTES = 128L
+
+    private val threadBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+
+    /**
+     * Measured rounds: the JIT can allocate once in a while on the measured thread (objects
+     * rematerialized on deoptimization), a round without such noise gives the actual count.
+     */
+    const val ROUNDS = 3
+
+    /**
+     * @return the total bytes allocated by [iterations] runs of [block], once warmed up: the
+     * smallest total of [ROUNDS] rounds. Inline so that passing the iteration to [block] doesn't
+     * box it.
+     */
+    inline fun totalBytes(iterations: Int, block: (Int) -> Unit): Long {
+        // Warm up: lazy initializations must not be counted as steady state allocations
+        for(i in 0 until iterations) {
+            block(i)
+        }
+
+        var minAllocated = Long.MAX_VALUE
+        for(round in 0 until ROUNDS) {
+            // Reading the counter allocates on its own, measured without any work and subtracted
+            val overhead = allocatedBytes() - allocatedBytes()
+            val start = allocatedBytes()
+            for(i in 0 until iterations) {
+                block(i)
+            }
+
+            minAllocated = Math.min(minAllocated, Math.max(0, allocatedBytes() - start + overhead))
+        }
+
+        return minAllocated
+    }
+
+    /**
+     * Fails if [iterations] runs of [block] allocate more than [budgetBytesPerIteration] each.
+     * The total is checked so that an allocation every few iterations can't round down to 0.
+     */
+    inline fun assertWithinBudget(name: String, iterations: Int, budgetBytesPerIteration: Long, block: (Int) -> Unit) {
+        val allocated = totalBytes(iterations, block)
+        val budget = budgetBytesPerIteration * iterations + ONE_OFF_TOLERANCE_BYTES
+        if( allocated > budget ) {
+            throw AssertionError("$name allocated $allocated bytes over $iterations iterations, budget is $budget")
+        }
+    }
+
+    fun isSupported(): Boolean {
+        return try {
+            allocatedBytes() >= 0
+        } catch (e: Throwable) {
+            false
+        }
+    }
+
+    @PublishedApi
+    internal fun allocatedBytes(): Long = threadBean.getThreadAllocatedBytes(Thread.currentThread().id)
+}
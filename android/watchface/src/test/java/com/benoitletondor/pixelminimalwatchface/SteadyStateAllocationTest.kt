@@ -0,0 +1,79 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface
+
+import org.junit.Assume.assumeTrue
+import org.junit.Before
+import org.junit.Test
+
+// Checked-in budget of the per frame code covered here: raise it only with a good reason
+private const val STEADY_STATE_FRAME_BUDGET_BYTES = 0L
+
+private const val FRAMES = 10_000
+// Start of a minute
+private const val BASE_TIME_MS = 1_589_500_800_000L
+
+/**
+ * Allocation budget of the per frame code that runs on the JVM. The time text is covered by
+ * TimeTextEngineTest, the drawing itself on device by DrawAllocationTest.
+ */
+class SteadyStateAllocationTest {
+    @Before
+    fun setUp() {
+        assumeTrue("Thread allocation counting isn't available", AllocationCounter.isSupported())
+    }
+
+    @Test
+    fun renderKeyDoesntAllocate() {
+        val current = RenderKey(4)
+        val lastDrawn = RenderKey(4)
+
+        // Seconds ring frames: the key changes every second
+        assertWithinBudget("render key") { i ->
+            current.localMinute = (BASE_TIME_MS + i * 1_000L) / 60_000L
+            current.ringSecond = i % 60
+            current.flags = RenderKey.FLAG_SECONDS_RING or RenderKey.FLAG_PREMIUM
+            current.complicationVersions[i % 4]++
+
+            if( !current.isSameAs(lastDrawn) ) {
+                lastDrawn.copyFrom(current)
+            }
+        }
+    }
+
+    @Test
+    fun frameProfilingDoesntAllocate() {
+        val profiler = FrameProfiler(4)
+        val stats = FrameRequestStats()
+
+        assertWithinBudget("frame profiling") { i ->
+            profiler.beginPhase(FrameProfiler.PHASE_FRAME)
+            profiler.beginSlot(i % 4)
+            profiler.endSlot(i % 4)
+            profiler.endPhase(FrameProfiler.PHASE_FRAME)
+
+            if( i % 2 == 0 ) {
+                stats.onDrawn(FrameRequestReason.SCHEDULER)
+            } else {
+                stats.onElided(FrameRequestReason.COMPLICATION_DATA)
+            }
+        }
+    }
+
+    private inline fun assertWithinBudget(name: String, frame: (Int) -> Unit) {
+        AllocationCounter.assertWithinBudget(name, FRAMES, STEADY_STATE_FRAME_BUDGET_BYTES, frame)
+    }
+}
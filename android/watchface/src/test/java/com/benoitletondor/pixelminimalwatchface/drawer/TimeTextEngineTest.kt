@@ -0,0 +1,162 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface.drawer
+
+import com.benoitletondor.pixelminimalwatchface.AllocationCounter
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Before
+import org.junit.Test
+import java.util.*
+
+class TimeTextEngineTest {
+    private val utc = TimeZone.getTimeZone("UTC")
+    private lateinit var defaultLocale: Locale
+    private lateinit var engine: TimeTextEngine
+
+    @Before
+    fun setUp() {
+        defaultLocale = Locale.getDefault()
+        Locale.setDefault(Locale.US)
+        engine = TimeTextEngine()
+    }
+
+    @After
+    fun tearDown() {
+        Locale.setDefault(defaultLocale)
+    }
+
+    @Test
+    fun formats24h() {
+        assertText("00:00", time(0, 0), utc, true)
+        assertText("09:05", time(9, 5), utc, true)
+        assertText("23:59", time(23, 59), utc, true)
+    }
+
+    @Test
+    fun formats12h() {
+        assertText("12:00", time(0, 0), utc, false)
+        assertText("9:05", time(9, 5), utc, false)
+        assertText("12:30", time(12, 30), utc, false)
+        assertText("1:07", time(13, 7), utc, false)
+        assertText("11:59", time(23, 59), utc, false)
+    }
+
+    @Test
+    fun appliesTimeZoneOffset() {
+        assertText("01:30", time(23, 30), TimeZone.getTimeZone("GMT+02:00"), true)
+        assertText("18:45", time(0, 15), TimeZone.getTimeZone("GMT-05:30"), true)
+    }
+
+    @Test
+    fun usesLocaleZeroDigit() {
+        Locale.setDefault(Locale.forLanguageTag("ar-EG-u-nu-arab"))
+
+        assertText("٠٩:٠٥", time(9, 5), utc, true)
+    }
+
+    @Test
+    fun reformatsWhenLocaleChanges() {
+        assertText("09:05", time(9, 5), utc, true)
+
+        Locale.setDefault(Locale.forLanguageTag("ar-EG-u-nu-arab"))
+
+        assertText("٠٩:٠٥", time(9, 5), utc, true)
+    }
+
+    @Test
+    fun onlyReformatsOnMinuteBoundaries() {
+        val minute = time(10, 41)
+
+        assertTrue(engine.update(minute, utc, true))
+        engine.width = 42f
+
+        assertFalse(engine.update(minute + 1, utc, true))
+        assertFalse(engine.update(minute + 59_999, utc, true))
+        assertEquals(42f, engine.width)
+        assertEquals("10:41", text())
+
+        assertTrue(engine.update(minute + 60_000, utc, true))
+        assertEquals(-1f, engine.width)
+        assertEquals("10:42", text())
+    }
+
+    @Test
+    fun reformatsWhenFormatOrTimeZoneChanges() {
+        val minute = time(15, 20)
+
+        assertTrue(engine.update(minute, utc, true))
+        assertTrue(engine.update(minute, utc, false))
+        assertEquals("3:20", text())
+        assertTrue(engine.update(minute, TimeZone.getTimeZone("GMT+01:00"), false))
+        assertEquals("4:20", text())
+        assertFalse(engine.update(minute, TimeZone.getTimeZone("GMT+01:00"), false))
+    }
+
+    @Test
+    fun reformatsAfterInvalidate() {
+        val minute = time(8, 0)
+
+        assertTrue(engine.update(minute, utc, true))
+        engine.invalidate()
+        assertTrue(engine.update(minute, utc, true))
+    }
+
+    @Test
+    fun handlesTimesBeforeEpoch() {
+        assertText("23:59", -1L, utc, true)
+    }
+
+    @Test
+    fun doesntAllocateWithinAMinute() {
+        assumeTrue("Thread allocation counting isn't available", AllocationCounter.isSupported())
+        val minute = time(10, 41)
+
+        // Interactive frames, 60 per second within the same minute
+        AllocationCounter.assertWithinBudget("time text within a minute", FRAMES, 0) { i ->
+            engine.update(minute + (i % 3_750) * 16L, utc, true)
+        }
+        assertEquals("10:41", text())
+    }
+
+    @Test
+    fun doesntAllocateOnMinuteChanges() {
+        assumeTrue("Thread allocation counting isn't available", AllocationCounter.isSupported())
+        val paris = TimeZone.getTimeZone("Europe/Paris")
+
+        // Ambient frames, one per minute: reformatting writes into the same buffer
+        AllocationCounter.assertWithinBudget("time text on minute changes", FRAMES, 0) { i ->
+            engine.update(time(0, i), paris, false)
+        }
+    }
+
+    private fun assertText(expected: String, timeMillis: Long, timeZone: TimeZone, use24hFormat: Boolean) {
+        engine.update(timeMillis, timeZone, use24hFormat)
+        assertEquals(expected, text())
+    }
+
+    private fun text() = String(engine.chars, 0, engine.length)
+
+    private fun time(hours: Int, minutes: Int): Long = ((DAY_OF_2020_01_01 * 24 + hours) * 60 + minutes) * 60_000L
+
+    companion object {
+        private const val DAY_OF_2020_01_01 = 18262L
+        private const val FRAMES = 10_000
+    }
+}
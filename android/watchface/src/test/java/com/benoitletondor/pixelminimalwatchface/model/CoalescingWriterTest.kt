@@ -0,0 +1,83 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface.model
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+private const val WRITE_DELAY_MS = 100L
+
+class CoalescingWriterTest {
+    private val executor = Executors.newSingleThreadScheduledExecutor()
+
+    @After
+    fun tearDown() {
+        executor.shutdownNow()
+    }
+
+    @Test
+    fun writesABurstOfChangesOnce() {
+        val writes = AtomicInteger()
+        val timeSize = AtomicInteger()
+        val writtenTimeSize = AtomicInteger(-1)
+        val writer = CoalescingWriter(executor, WRITE_DELAY_MS) {
+            writes.incrementAndGet()
+            writtenTimeSize.set(timeSize.get())
+        }
+
+        // Like dragging the time size slider on the settings screen
+        for(i in 1..20) {
+            timeSize.set(i)
+            writer.requestWrite()
+        }
+        awaitScheduledWrites()
+
+        assertEquals(1, writes.get())
+        assertEquals(20, writtenTimeSize.get())
+    }
+
+    @Test
+    fun writesAgainAChangeMadeDuringAWrite() {
+        val writes = AtomicInteger()
+        val writeStarted = CountDownLatch(1)
+        val changeMade = CountDownLatch(1)
+        val writer = CoalescingWriter(executor, WRITE_DELAY_MS) {
+            if( writes.incrementAndGet() == 1 ) {
+                writeStarted.countDown()
+                changeMade.await()
+            }
+        }
+
+        writer.requestWrite()
+        writeStarted.await()
+        writer.requestWrite()
+        changeMade.countDown()
+        awaitScheduledWrites()
+
+        assertEquals(2, writes.get())
+    }
+
+    private fun awaitScheduledWrites() {
+        // Delayed tasks scheduled before the shutdown still run
+        executor.shutdown()
+        executor.awaitTermination(5, TimeUnit.SECONDS)
+    }
+}
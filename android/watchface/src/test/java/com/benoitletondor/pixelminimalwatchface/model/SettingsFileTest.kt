@@ -0,0 +1,160 @@
+/*
+ *   Copyright 2020 Benoit LETONDOR
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.benoitletondor.pixelminimalwatchface.model
+
+import org.junit.Assert.assertEquals
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.*
+
+class SettingsFileTest {
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    @Test
+    fun roundTripsEveryFlagCombination() {
+        for(flags in 0 until (1 shl 9)) {
+            val values = StoredValues(
+                settings = WatchFaceSettings(
+                    isUserPremium = flags and 1 != 0,
+                    use24hTimeFormat = flags and (1 shl 1) != 0,
+                    showWearOSLogo = flags and (1 shl 2) != 0,
+                    showComplicationsInAmbientMode = flags and (1 shl 3) != 0,
+                    showFilledTimeInAmbientMode = flags and (1 shl 4) != 0,
+                    timeSize = flags,
+                    showSecondsRing = flags and (1 shl 5) != 0,
+                    showWeather = flags and (1 shl 6) != 0,
+                    showDebugOverlay = flags and (1 shl 8) != 0
+                ),
+                complicationColor = -147282 + flags,
+                installTimestamp = 1589000000000L + flags,
+                ratingDisplayed = flags and (1 shl 7) != 0,
+                appVersion = 31 + flags
+            )
+
+            assertEquals(values, readStoredValues(DataInputStream(ByteArrayInputStream(encode(values)))))
+        }
+    }
+
+    @Test
+    fun roundTripsExtremeValues() {
+        val values = StoredValues(
+            settings = WatchFaceSettings(
+                isUserPremium = true,
+                use24hTimeFormat = false,
+                showWearOSLogo = true,
+                showComplicationsInAmbientMode = false,
+                showFilledTimeInAmbientMode = true,
+                timeSize = Int.MAX_VALUE,
+                showSecondsRing = false,
+                showWeather = true,
+                showDebugOverlay = false
+            ),
+            complicationColor = Int.MIN_VALUE,
+            installTimestamp = Long.MIN_VALUE,
+            ratingDisplayed = true,
+            appVersion = -1
+        )
+
+        assertEquals(values, readStoredValues(DataInputStream(ByteArrayInputStream(encode(values)))))
+    }
+
+    @Test(expected = IOException::class)
+    fun rejectsInvalidMagic() {
+        val bytes = encode(defaultValues())
+        bytes[0] = 0
+
+        readStoredValues(DataInputStream(ByteArrayInputStream(bytes)))
+    }
+
+    @Test(expected = IOException::class)
+    fun rejectsUnknownVersion() {
+        val bytes = encode(defaultValues())
+        bytes[4] = 0
+
+        readStoredValues(DataInputStream(ByteArrayInputStream(bytes)))
+    }
+
+    @Test
+    fun rejectsTruncatedContent() {
+        val bytes = encode(defaultValues())
+        for(length in 0 until bytes.size) {
+            try {
+                readStoredValues(DataInputStream(ByteArrayInputStream(bytes.copyOf(length))))
+                throw AssertionError("Truncated content of $length bytes was read")
+            } catch (e: IOException) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    fun readsColdFileInASingleRead() {
+        val file = temporaryFolder.newFile()
+        file.writeBytes(encode(defaultValues()))
+
+        var reads = 0
+        val fileInput = object : FilterInputStream(FileInputStream(file)) {
+            override fun read(): Int {
+                reads++
+                return super.read()
+            }
+
+            override fun read(b: ByteArray, off: Int, len: Int): Int {
+                reads++
+                return super.read(b, off, len)
+            }
+        }
+
+        val start = System.nanoTime()
+        val values = DataInputStream(BufferedInputStream(fileInput)).use { readStoredValues(it) }
+        println("Cold read of ${file.length()} bytes in ${(System.nanoTime() - start) / 1000}us")
+
+        assertEquals(defaultValues(), values)
+        assertEquals(1, reads)
+    }
+
+    @Test
+    fun writesEveryChangeAsASmallRecord() {
+        // Every write rewrites the whole record, whatever changed
+        assertEquals(29, encode(defaultValues()).size)
+    }
+
+    private fun defaultValues() = StoredValues(
+        settings = WatchFaceSettings(
+            isUserPremium = false,
+            use24hTimeFormat = true,
+            showWearOSLogo = true,
+            showComplicationsInAmbientMode = false,
+            showFilledTimeInAmbientMode = false,
+            timeSize = 50,
+            showSecondsRing = false,
+            showWeather = false,
+            showDebugOverlay = false
+        ),
+        complicationColor = -147282,
+        installTimestamp = 1589000000000L,
+        ratingDisplayed = false,
+        appVersion = 31
+    )
+
+    private fun encode(values: StoredValues): ByteArray {
+        val output = ByteArrayOutputStream()
+        DataOutputStream(output).use { writeStoredValues(it, values) }
+        return output.toByteArray()
+    }
+}